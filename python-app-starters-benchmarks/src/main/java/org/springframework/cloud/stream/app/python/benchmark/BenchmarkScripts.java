@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.springframework.cloud.stream.app.python.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
+import org.springframework.integration.scripting.ScriptVariableGenerator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+/**
+ * The scripts under test with the variables and a sample payload for each.
+ **/
+abstract class BenchmarkScripts {
+
+	private static final Map<String, Object> PAYLOADS = new HashMap<>();
+
+	private static final Map<String, Map<String, Object>> VARIABLES = new HashMap<>();
+
+	static {
+		PAYLOADS.put("upper.py", "hello world");
+		PAYLOADS.put("simple_wrapper.py", "hello world");
+		PAYLOADS.put("json-test.py", "[{\"id\": 1, \"text\": \"hello world\"}, {\"id\": 2, \"text\": \"goodbye\"}]");
+		PAYLOADS.put("springjson-test.py", ((String) PAYLOADS.get("json-test.py")).getBytes(StandardCharsets.UTF_8));
+		PAYLOADS.put("map_sentiments.py", 0.394);
+		PAYLOADS.put("springjson_sentiments.py", 0.394);
+		PAYLOADS.put("identity.py", "hello world");
+
+		Map<String, Object> sentiments = new HashMap<>();
+		sentiments.put("positive", 0.6);
+		sentiments.put("neutral", 0.4);
+		VARIABLES.put("map_sentiments.py", sentiments);
+		VARIABLES.put("springjson_sentiments.py", sentiments);
+	}
+
+	/*
+	 * Scripts must be files, so they are copied out of the benchmark jar.
+	 */
+	static JythonScriptExecutor executor(String script, int poolSize) throws IOException {
+		return executor(script, poolSize, new DefaultScriptVariableGenerator());
+	}
+
+	static JythonScriptExecutor executor(String script, int poolSize, ScriptVariableGenerator variableGenerator)
+		throws IOException {
+		File file = File.createTempFile(script, null);
+		file.deleteOnExit();
+		try (InputStream inputStream = new ClassPathResource("scripts/" + script).getInputStream()) {
+			Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		JythonScriptExecutor executor = new JythonScriptExecutor(new FileSystemResource(file),
+			variableGenerator,
+			new JythonInterpreterPool(poolSize, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+		executor.setStaticVariables(VARIABLES.getOrDefault(script, Collections.emptyMap()));
+		return executor;
+	}
+
+	static Message<?> message(String script) {
+		return new GenericMessage<>(PAYLOADS.get(script));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
+import org.springframework.integration.scripting.ScriptVariableGenerator;
+import org.springframework.messaging.Message;
+
+/**
+ * Measures the garbage produced per message by binding, with a script that returns its payload, so the
+ * 'gc.alloc.rate.norm' reported by the GC profiler is the cost of the binding path itself. Compares binding the
+ * payload and headers directly ('message') with generating a map of variables for each message ('generator'), which
+ * is what a custom {@link ScriptVariableGenerator} requires, and adds the 'channel' variable bound by the python-http
+ * processor.
+ **/
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(1)
+public class BindingAllocationBenchmark {
+
+	private static final Map<String, Object> CHANNEL = Collections.singletonMap("channel", "input");
+
+	private static final String[] CHANNEL_TAGS = { "channel", "input" };
+
+	@Param({ "message", "generator" })
+	private String binding;
+
+	@Param({ "", "process" })
+	private String function;
+
+	private JythonScriptExecutor executor;
+
+	private Message<?> message;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ScriptVariableGenerator variableGenerator = this.binding.equals("message") ?
+			new DefaultScriptVariableGenerator() : new CustomScriptVariableGenerator();
+		this.executor = BenchmarkScripts.executor("identity.py", 1, variableGenerator);
+		this.executor.setFunction(this.function);
+		this.message = BenchmarkScripts.message("identity.py");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.executor.destroy();
+	}
+
+	@Benchmark
+	public Object payloadAndHeaders() {
+		return this.executor.execute(this.message);
+	}
+
+	@Benchmark
+	public Object withChannel() {
+		return this.executor.execute(this.message, CHANNEL, CHANNEL_TAGS);
+	}
+
+	/*
+	 * Binds the same variables, but as a subclass is not known to bind only the payload and headers.
+	 */
+	private static class CustomScriptVariableGenerator extends DefaultScriptVariableGenerator {
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.springframework.cloud.stream.app.python.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+
+/**
+ * Measures the first message on a cold interpreter: loading and compiling the script, creating the interpreter and
+ * running the script once. The first iteration of each fork also includes JVM and Jython startup.
+ **/
+@State(Scope.Thread)
+@Fork(5)
+@Warmup(iterations = 0)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColdStartBenchmark {
+
+	@Param({ "upper.py", "json-test.py", "map_sentiments.py", "simple_wrapper.py" })
+	private String script;
+
+	private JythonScriptExecutor executor;
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.destroy();
+		}
+	}
+
+	@Benchmark
+	public Object firstMessage() throws IOException {
+		this.executor = BenchmarkScripts.executor(this.script, 1);
+		return this.executor.execute(BenchmarkScripts.message(this.script));
+	}
+}
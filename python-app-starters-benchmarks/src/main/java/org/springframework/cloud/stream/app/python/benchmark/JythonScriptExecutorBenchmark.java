@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.springframework.cloud.stream.app.python.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.messaging.Message;
+
+/**
+ * Measures {@link JythonScriptExecutor#execute(Message)} on warm interpreters: single message latency on one thread
+ * and throughput with as many threads (and pooled interpreters) as there are processors.
+ **/
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JythonScriptExecutorBenchmark {
+
+	@Param({ "upper.py", "json-test.py", "springjson-test.py", "map_sentiments.py", "springjson_sentiments.py",
+		"simple_wrapper.py" })
+	private String script;
+
+	private JythonScriptExecutor executor;
+
+	private Message<?> message;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.executor = BenchmarkScripts.executor(this.script, Runtime.getRuntime().availableProcessors());
+		this.message = BenchmarkScripts.message(this.script);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.executor.destroy();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(1)
+	public Object latency() {
+		return this.executor.execute(this.message);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(Threads.MAX)
+	public Object throughput() {
+		return this.executor.execute(this.message);
+	}
+}
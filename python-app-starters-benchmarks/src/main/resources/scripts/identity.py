@@ -0,0 +1,4 @@
+def process(payload, headers):
+    return payload
+
+result = payload
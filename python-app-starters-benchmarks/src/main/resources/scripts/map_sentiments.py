@@ -0,0 +1,7 @@
+import json
+sentiment='Negative'
+map={'Positive': float(positive),'Neutral': float(neutral)}
+for(k,v) in sorted(map.items(),key=lambda(k,v):(v,k)):
+    if payload > v:
+        sentiment=k
+result=json.dumps({'sentiment':sentiment})
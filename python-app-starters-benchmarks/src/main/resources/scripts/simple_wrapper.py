@@ -0,0 +1,3 @@
+result = payload.upper()
+
+
@@ -0,0 +1 @@
+result=payload.upper()
\ No newline at end of file
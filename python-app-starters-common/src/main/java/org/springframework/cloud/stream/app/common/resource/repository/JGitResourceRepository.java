@@ -35,29 +35,50 @@ import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.OpenSshConfig.Host;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.SshSessionFactory;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.FileUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.config.server.support.PassphraseCredentialsProvider;
 import org.springframework.core.io.UrlResource;
 import org.springframework.util.Assert;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A Resource provider backed by a single git repository.
@@ -77,6 +98,11 @@ public class JGitResourceRepository implements InitializingBean {
 	private static final String DEFAULT_LABEL = "master";
 	private static final String DEFAULT_PREFIX = "resource_repo";
 
+	// file locks are held by the JVM, so instances in the same JVM also need a monitor
+	private static final Object MIRROR_MONITOR = new Object();
+
+	private static final Object CLONE_MONITOR = new Object();
+
 	protected Log logger = LogFactory.getLog(this.getClass());
 
 	/**
@@ -141,6 +167,41 @@ public class JGitResourceRepository implements InitializingBean {
 	 */
 	private boolean forcePull;
 
+	/**
+	 * Interval (in seconds) between refreshes of the repository after startup. Default 0, never refresh.
+	 */
+	private int refreshInterval;
+
+	/**
+	 * Flag to indicate that only the branch given by the label should be cloned and fetched.
+	 */
+	private boolean singleBranch;
+
+	/**
+	 * Flag to indicate that only the sparse checkout paths should be written to the working directory. Objects are
+	 * still fetched, but the rest of the tree is never checked out.
+	 */
+	private boolean sparseCheckout;
+
+	/**
+	 * The paths, relative to the root of the repository, to check out if sparse checkout is enabled. Defaults to the
+	 * directory of the script.
+	 */
+	private List<String> sparseCheckoutPaths = new ArrayList<>();
+
+	/**
+	 * Flag to indicate that the clone should be kept across restarts, in a subdirectory of the basedir named after a
+	 * hash of the uri. On startup, a clone found there is reused and only fetches the new objects. Instances sharing
+	 * the basedir clone and refresh it in turn, under a file lock. Requires a basedir.
+	 */
+	private boolean persistent;
+
+	/**
+	 * A host-level directory in which all instances share a bare mirror of the repository. If set, the mirror is
+	 * fetched under a file lock, and the clone in the basedir uses the objects of the mirror instead of copying them.
+	 */
+	private File mirrorDir;
+
 	public boolean isCloneOnStart() {
 		return this.cloneOnStart;
 	}
@@ -231,6 +292,54 @@ public class JGitResourceRepository implements InitializingBean {
 		this.forcePull = forcePull;
 	}
 
+	public void setRefreshInterval(int refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	public int getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	public void setSingleBranch(boolean singleBranch) {
+		this.singleBranch = singleBranch;
+	}
+
+	public boolean isSingleBranch() {
+		return singleBranch;
+	}
+
+	public void setSparseCheckout(boolean sparseCheckout) {
+		this.sparseCheckout = sparseCheckout;
+	}
+
+	public boolean isSparseCheckout() {
+		return sparseCheckout;
+	}
+
+	public void setSparseCheckoutPaths(List<String> sparseCheckoutPaths) {
+		this.sparseCheckoutPaths = sparseCheckoutPaths;
+	}
+
+	public List<String> getSparseCheckoutPaths() {
+		return sparseCheckoutPaths;
+	}
+
+	public void setPersistent(boolean persistent) {
+		this.persistent = persistent;
+	}
+
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	public void setMirrorDir(File mirrorDir) {
+		this.mirrorDir = mirrorDir.getAbsoluteFile();
+	}
+
+	public File getMirrorDir() {
+		return mirrorDir;
+	}
+
 	/**
 	 * @param gitCredentialsProvider the gitCredentialsProvider to set
 	 */
@@ -244,6 +353,9 @@ public class JGitResourceRepository implements InitializingBean {
 			return;
 		}
 		Assert.state(getUri() != null, "You need to configure a uri for the git repository");
+		Assert.state(!isSparse() || !CollectionUtils.isEmpty(this.sparseCheckoutPaths),
+			"You need to configure the paths for a sparse checkout");
+		Assert.state(!this.persistent || getBasedir() != null, "You need to configure a basedir for a persistent clone");
 		initialize();
 		if (this.cloneOnStart) {
 			initClonedRepository();
@@ -255,9 +367,28 @@ public class JGitResourceRepository implements InitializingBean {
 	 */
 	public String refresh(String branch) {
 		initialize();
+		if (!this.persistent) {
+			return doRefresh(branch);
+		}
+		try {
+			return withCloneLock(() -> doRefresh(branch));
+		}
+		catch (GitAPIException | IOException e) {
+			throw new IllegalStateException("Cannot lock the clone in " + getBasedir(), e);
+		}
+	}
+
+	private String doRefresh(String branch) {
 		Git git = null;
 		try {
+			if (isMirrored()) {
+				syncMirror();
+			}
 			git = createGitClient();
+			if (isSparse()) {
+				fetch(git, branch);
+				return checkoutSparse(git, branch);
+			}
 			if (shouldPull(git)) {
 				fetch(git, branch);
 				//checkout after fetch so we can get any new branches, tags, ect.
@@ -315,19 +446,76 @@ public class JGitResourceRepository implements InitializingBean {
 	 */
 	private void initClonedRepository() throws GitAPIException, IOException {
 		if (!getUri().startsWith(FILE_URI_PREFIX)) {
-			deleteLocalRepoIfExists();
-			Git git = cloneToBasedir();
-			if (git != null) {
-				git.close();
+			if (this.persistent) {
+				withCloneLock(() -> {
+					cloneToBasedirOrReuse();
+					return null;
+				});
 			}
-			git = openGitRepository();
-			if (git != null) {
-				git.close();
+			else {
+				cloneToBasedirOrReuse();
 			}
 		}
 
 	}
 
+	private void cloneToBasedirOrReuse() throws GitAPIException, IOException {
+		if (isReusableClone()) {
+			this.logger.info("Reusing the clone of " + getUri() + " in " + getBasedir());
+			// syncs the mirror, if any, before fetching from it
+			doRefresh(this.label);
+			return;
+		}
+		if (isMirrored()) {
+			syncMirror();
+		}
+		deleteLocalRepoIfExists();
+		Git git = cloneToBasedir();
+		if (git != null) {
+			git.close();
+		}
+		git = openGitRepository();
+		if (git != null) {
+			git.close();
+		}
+	}
+
+	/*
+	 * Runs the callback holding a file lock next to the persistent clone, so instances sharing the basedir do not
+	 * clone or check out into it at the same time. File locks are held by the JVM, so a monitor is taken as well.
+	 */
+	private <T> T withCloneLock(CloneCallback<T> callback) throws GitAPIException, IOException {
+		Path lockFile = getBasedir().toPath().resolveSibling(getBasedir().getName() + ".lock");
+		synchronized (CLONE_MONITOR) {
+			try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				// released when the channel is closed
+				channel.lock();
+				return callback.doWithLock();
+			}
+		}
+	}
+
+	/*
+	 * A persistent basedir left by a previous run is reused if it holds a clone of the same uri.
+	 */
+	private boolean isReusableClone() {
+		if (!this.persistent || !new File(getBasedir(), ".git").isDirectory()) {
+			return false;
+		}
+		try (Git git = openGitRepository()) {
+			String originUrl = git.getRepository().getConfig().getString("remote", "origin", "url");
+			String uri = isMirrored() ? getMirror().getAbsolutePath() : getUri();
+			if (uri.equals(originUrl)) {
+				return true;
+			}
+			this.logger.info("The clone in " + getBasedir() + " is of " + originUrl + ", cloning " + uri);
+		}
+		catch (IOException e) {
+			warn("Cannot open the clone in " + getBasedir() + ", cloning it again", e);
+		}
+		return false;
+	}
+
 	private Ref checkout(Git git, String branch) throws GitAPIException {
 		CheckoutCommand checkout = git.checkout();
 		if (shouldTrack(git, branch)) {
@@ -383,6 +571,10 @@ public class JGitResourceRepository implements InitializingBean {
 		FetchCommand fetch = git.fetch();
 		fetch.setRemote("origin");
 		fetch.setTagOpt(TagOpt.FETCH_TAGS);
+		if (this.singleBranch) {
+			fetch.setRefSpecs(
+				new RefSpec("+" + Constants.R_HEADS + branch + ":" + Constants.R_REMOTES + "origin/" + branch));
+		}
 
 		setTimeout(fetch);
 		try {
@@ -494,18 +686,213 @@ public class JGitResourceRepository implements InitializingBean {
 		return git;
 	}
 
-	private Git cloneToBasedir() throws GitAPIException {
+	private Git cloneToBasedir() throws GitAPIException, IOException {
+		if (isMirrored()) {
+			return cloneFromMirror();
+		}
 		CloneCommand clone = this.gitFactory.getCloneCommandByCloneRepository().setURI(getUri())
 			.setDirectory(this.basedir);
+		if (this.singleBranch) {
+			clone.setCloneAllBranches(false);
+			clone.setBranchesToClone(Collections.singleton(Constants.R_HEADS + this.label));
+			clone.setBranch(this.label);
+		}
+		if (isSparse()) {
+			clone.setNoCheckout(true);
+		}
 		setTimeout(clone);
 		setCredentialsProvider(clone);
+		Git git;
 		try {
-			return clone.call();
+			git = clone.call();
 		}
 		catch (GitAPIException e) {
 			deleteLocalRepoIfExists();
 			throw e;
 		}
+		if (isSparse()) {
+			try {
+				checkoutSparse(git, this.label);
+			}
+			catch (GitAPIException | IOException e) {
+				git.close();
+				deleteLocalRepoIfExists();
+				throw e;
+			}
+		}
+		return git;
+	}
+
+	/*
+	 * Creates a repository in the basedir that uses the objects of the mirror through its alternates, so only the
+	 * working tree is written, and fetches from the mirror, which finds all the objects already there.
+	 */
+	private Git cloneFromMirror() throws GitAPIException, IOException {
+		File mirror = getMirror();
+		Git git = Git.init().setDirectory(this.basedir).call();
+		try {
+			Repository repository = git.getRepository();
+			Path alternates = repository.getDirectory().toPath().resolve("objects/info/alternates");
+			Files.createDirectories(alternates.getParent());
+			Files.write(alternates,
+				(new File(mirror, "objects").getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+			StoredConfig config = repository.getConfig();
+			config.setString("remote", "origin", "url", mirror.getAbsolutePath());
+			config.setString("remote", "origin", "fetch", "+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + "origin/*");
+			config.save();
+			// reopen, so the alternates are read
+			git.close();
+			git = openGitRepository();
+			fetch(git, this.label);
+			if (isSparse()) {
+				checkoutSparse(git, this.label);
+			}
+			else {
+				checkout(git, this.label);
+			}
+			return git;
+		}
+		catch (GitAPIException | IOException | RuntimeException e) {
+			git.close();
+			deleteLocalRepoIfExists();
+			throw e;
+		}
+	}
+
+	private boolean isMirrored() {
+		return this.mirrorDir != null && !getUri().startsWith(FILE_URI_PREFIX);
+	}
+
+	private File getMirror() {
+		return new File(this.mirrorDir, uriHash() + ".git");
+	}
+
+	private String uriHash() {
+		return DigestUtils.md5DigestAsHex(getUri().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Clones or fetches the shared mirror under a file lock. The lock file holds the time of the last fetch, so an
+	 * instance that waited for the lock while another one fetched does not fetch again.
+	 */
+	private void syncMirror() throws GitAPIException, IOException {
+		File mirror = getMirror();
+		long requested = System.currentTimeMillis();
+		synchronized (MIRROR_MONITOR) {
+			Files.createDirectories(this.mirrorDir.toPath());
+			Path lockFile = this.mirrorDir.toPath().resolve(uriHash() + ".lock");
+			try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+				// released when the channel is closed
+				channel.lock();
+				ByteBuffer fetched = ByteBuffer.allocate(Long.BYTES);
+				boolean cloned = new File(mirror, "objects").isDirectory();
+				if (cloned && channel.read(fetched, 0) == Long.BYTES && fetched.getLong(0) >= requested) {
+					return;
+				}
+				if (cloned ? fetchMirror(mirror) : cloneMirror(mirror)) {
+					fetched.putLong(0, System.currentTimeMillis());
+					fetched.rewind();
+					channel.write(fetched, 0);
+				}
+			}
+		}
+	}
+
+	private boolean cloneMirror(File mirror) throws GitAPIException, IOException {
+		this.logger.info("Cloning " + getUri() + " into the mirror " + mirror);
+		// clone next to the mirror and move it into place, so a failed clone never leaves a partial mirror
+		File temp = Files.createTempDirectory(this.mirrorDir.toPath(), mirror.getName()).toFile();
+		CloneCommand clone = this.gitFactory.getCloneCommandByCloneRepository().setURI(getUri())
+			.setDirectory(temp);
+		clone.setBare(true);
+		clone.setCloneAllBranches(true);
+		setTimeout(clone);
+		setCredentialsProvider(clone);
+		try {
+			clone.call().close();
+			if (mirror.exists()) {
+				FileUtils.delete(mirror, FileUtils.RECURSIVE);
+			}
+			Files.move(temp.toPath(), mirror.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+		finally {
+			if (temp.exists()) {
+				FileUtils.delete(temp, FileUtils.RECURSIVE | FileUtils.IGNORE_ERRORS);
+			}
+		}
+	}
+
+	private boolean fetchMirror(File mirror) throws IOException {
+		try (Git git = this.gitFactory.getGitByOpen(mirror)) {
+			FetchCommand fetch = git.fetch();
+			fetch.setRemote("origin");
+			fetch.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*"));
+			fetch.setTagOpt(TagOpt.FETCH_TAGS);
+			fetch.setRemoveDeletedRefs(true);
+			setTimeout(fetch);
+			setCredentialsProvider(fetch);
+			fetch.call();
+			return true;
+		}
+		catch (GitAPIException | RuntimeException ex) {
+			warn("Could not fetch remote " + getUri() + " into the mirror " + mirror, ex);
+			return false;
+		}
+	}
+
+	private boolean isSparse() {
+		return this.sparseCheckout && !getUri().startsWith(FILE_URI_PREFIX);
+	}
+
+	/*
+	 * Writes the files under the sparse checkout paths at the tip of the branch (or the tag or commit) to the working
+	 * directory, and deletes the ones that no longer exist there. The index and HEAD are not used, so the rest of the
+	 * tree is never written. Files are only rewritten if they have changed, and are replaced atomically.
+	 */
+	private String checkoutSparse(Git git, String branch) throws IOException, GitAPIException {
+		Repository repository = git.getRepository();
+		ObjectId commitId = repository.resolve(Constants.R_REMOTES + "origin/" + branch);
+		if (commitId == null) {
+			commitId = repository.resolve(branch);
+		}
+		if (commitId == null) {
+			throw new RefNotFoundException("No such branch, tag or commit: " + branch);
+		}
+		File workTree = repository.getWorkTree();
+		Set<Path> checkedOut = new HashSet<>();
+		try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(PathFilterGroup.createFromStrings(this.sparseCheckoutPaths));
+			while (treeWalk.next()) {
+				Path file = workTree.toPath().resolve(treeWalk.getPathString());
+				byte[] content = repository.open(treeWalk.getObjectId(0)).getBytes();
+				checkedOut.add(file);
+				if (Files.isRegularFile(file) && Arrays.equals(content, Files.readAllBytes(file))) {
+					continue;
+				}
+				Files.createDirectories(file.getParent());
+				Path temp = Files.createTempFile(file.getParent(), ".checkout", ".tmp");
+				Files.write(temp, content);
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+		for (String sparsePath : this.sparseCheckoutPaths) {
+			Path root = workTree.toPath().resolve(sparsePath);
+			if (!Files.exists(root)) {
+				continue;
+			}
+			try (Stream<Path> files = Files.walk(root)) {
+				for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+					if (!checkedOut.contains(file)) {
+						Files.delete(file);
+					}
+				}
+			}
+		}
+		return commitId.getName();
 	}
 
 	private void deleteLocalRepoIfExists() {
@@ -536,6 +923,12 @@ public class JGitResourceRepository implements InitializingBean {
 
 	private File createTempBasedir() {
 		try {
+			if (this.persistent) {
+				// the clone gets a directory of its own, so nothing else in the basedir is ever deleted
+				File dir = new File(getBasedir(), uriHash());
+				Files.createDirectories(dir.toPath());
+				return dir;
+			}
 			final File dir;
 			if (StringUtils.isEmpty(getBasedir())) {
 				dir = Files.createTempDirectory(prefix).toFile();
@@ -637,6 +1030,11 @@ public class JGitResourceRepository implements InitializingBean {
 		}
 	}
 
+	private interface CloneCallback<T> {
+
+		T doWithLock() throws GitAPIException, IOException;
+	}
+
 	/**
 	 * Wraps the static method calls to {@link org.eclipse.jgit.api.Git} and
 	 * {@link org.eclipse.jgit.api.CloneCommand} allowing for easier unit testing.
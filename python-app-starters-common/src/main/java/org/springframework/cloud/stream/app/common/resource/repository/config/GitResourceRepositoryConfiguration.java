@@ -16,13 +16,22 @@
 
 package org.springframework.cloud.stream.app.common.resource.repository.config;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.stream.app.common.resource.repository.JGitResourceRepository;
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.GitScriptRefresher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
 
 /**
- * Configuration for a GitResourceRepository.
+ * Configuration for a GitResourceRepository and, if 'git.refresh-interval' is set, a {@link GitScriptRefresher}.
  *
  * @author David Turanski
  **/
@@ -31,7 +40,23 @@ import org.springframework.context.annotation.Configuration;
 public class GitResourceRepositoryConfiguration {
 
 	@Bean
-	public JGitResourceRepository gitResourceRepository() {
-		return new JGitResourceRepository();
+	public JGitResourceRepository gitResourceRepository(Environment environment) {
+		JGitResourceRepository repository = new JGitResourceRepository();
+		String script = environment.getProperty("jython.script", environment.getProperty("wrapper.script"));
+		if (StringUtils.hasText(script)) {
+			// a sparse checkout defaults to the directory of the script, which may hold modules it imports
+			int separator = script.lastIndexOf('/');
+			repository.setSparseCheckoutPaths(
+				new ArrayList<>(Collections.singletonList(separator > 0 ? script.substring(0, separator) : script)));
+		}
+		return repository;
+	}
+
+	@Bean
+	@ConditionalOnExpression("${git.refresh-interval:0} > 0")
+	public GitScriptRefresher gitScriptRefresher(JGitResourceRepository gitResourceRepository,
+		ObjectProvider<AbstractPythonScriptExecutor> scriptExecutors) {
+		return new GitScriptRefresher(gitResourceRepository, scriptExecutors,
+			gitResourceRepository.getRefreshInterval());
 	}
 }
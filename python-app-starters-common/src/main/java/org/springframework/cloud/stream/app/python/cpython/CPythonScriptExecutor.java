@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.cpython;
+
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics;
+import org.springframework.core.io.Resource;
+import org.springframework.integration.scripting.ScriptVariableGenerator;
+import org.springframework.integration.scripting.jsr223.PythonScriptExecutor;
+
+import java.util.Map;
+
+/**
+ * A script executor that runs the script on CPython, in a pool of long-lived worker processes, so it can use C
+ * extensions such as numpy. Each worker compiles the script once. Payloads and results that are strings or byte
+ * arrays are passed as is, lists element by element, and anything else, including the other variables, as JSON. The
+ * {@link #getStaticVariables() static variables} are sent to each worker once, when it starts. In
+ * {@link #setBinary(boolean) binary mode}, results that are strings or JSON are returned as their UTF-8 bytes, as
+ * received from the worker, rather than decoded.
+ * <p>
+ * If a {@link #setFunction(String) function} is set, the script is run only once per worker to define it, and the
+ * function is then called with the payload and headers for every message.
+ **/
+public class CPythonScriptExecutor extends AbstractPythonScriptExecutor {
+
+	private final CPythonWorkerPool workerPool;
+
+	public CPythonScriptExecutor(Resource resource, ScriptVariableGenerator variableGenerator,
+		CPythonWorkerPool workerPool) {
+		super(resource, variableGenerator);
+		this.workerPool = workerPool;
+		this.workerPool.setVariables(getStaticVariables());
+
+		logger.debug(String.format("Loading script %s", getScriptPath()));
+		load(readScript());
+	}
+
+	@Override
+	public String getEngine() {
+		return "cpython";
+	}
+
+	@Override
+	public String getScript() {
+		return this.workerPool.getSource();
+	}
+
+	@Override
+	public int getPoolSize() {
+		return this.workerPool.getSize();
+	}
+
+	@Override
+	public void resetNamespaces() {
+		this.workerPool.resetNamespaces();
+	}
+
+	@Override
+	protected Object execute(Map<String, Object> variables, String payloadVariable, ScriptMetrics metrics,
+		long start) {
+		String function = getFunction();
+		boolean binary = isBinary();
+		Object payload = variables.remove(payloadVariable);
+		return this.workerPool.execute(worker -> worker.execute(payloadVariable, function, variables, payload,
+			binary, metrics, start));
+	}
+
+	@Override
+	protected void compile(String source) {
+		this.workerPool.setScript(getScriptPath(), source,
+			PythonScriptExecutor.PythonVariableParser.parseReturnVariable(source));
+	}
+
+	@Override
+	protected void staticVariablesChanged() {
+		this.workerPool.setVariables(getStaticVariables());
+	}
+
+	@Override
+	public void destroy() {
+		this.workerPool.close();
+	}
+}
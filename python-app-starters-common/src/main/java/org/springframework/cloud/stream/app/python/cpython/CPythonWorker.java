@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.cpython;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics.Phase;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CPython process running the bundled worker.py, which exchanges framed values with this class over its stdin and
+ * stdout. Large values may be passed through a {@link SharedMemoryRing} instead. See worker.py for the frame format.
+ * A worker is used by a single thread at a time. A worker that does not respond within its timeout is stopped, and
+ * the pending call fails with an {@link IOException}.
+ **/
+class CPythonWorker implements AutoCloseable {
+
+	private static final String WORKER_SOURCE;
+
+	static {
+		try {
+			WORKER_SOURCE = StreamUtils.copyToString(
+				new ClassPathResource("worker.py", CPythonWorker.class).getInputStream(), StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot read worker.py", e);
+		}
+	}
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+		daemonThreadFactory());
+
+	private final CPythonWorkerPool.Script script;
+
+	private final Process process;
+
+	private final DataOutputStream out;
+
+	private final DataInputStream in;
+
+	private final SharedMemoryRing sharedMemory;
+
+	private final long timeout;
+
+	private volatile boolean timedOut;
+
+	/*
+	 * Whether the script reads 'headers', and the top-level functions that ignore their headers argument, as found by
+	 * the worker when it compiled the script.
+	 */
+	private final boolean scriptUsesHeaders;
+
+	private final Collection<?> functionsIgnoringHeaders;
+
+	/**
+	 * Start a worker and compile the script on it.
+	 * @param command the command that runs CPython, e.g. 'python3'.
+	 * @param script the script.
+	 * @param sharedMemorySize the size of each half of the {@link SharedMemoryRing}, or 0 to pass all values through
+	 * the pipes.
+	 * @param sharedMemoryThreshold the minimum length of a value to pass through shared memory.
+	 * @param timeout the maximum time in milliseconds to wait for the worker to respond, or 0 to wait indefinitely.
+	 * @throws IllegalStateException if the script does not compile.
+	 * @throws IOException if the process cannot be started or does not respond in time.
+	 */
+	CPythonWorker(List<String> command, CPythonWorkerPool.Script script, int sharedMemorySize,
+		int sharedMemoryThreshold, long timeout) throws IOException {
+		this.script = script;
+		this.timeout = timeout;
+		this.sharedMemory = sharedMemorySize > 0 ? new SharedMemoryRing(sharedMemorySize, sharedMemoryThreshold) :
+			null;
+		List<String> arguments = new ArrayList<>(command);
+		arguments.add("-u");
+		arguments.add("-c");
+		arguments.add(WORKER_SOURCE);
+		arguments.add(script.getPath());
+		if (this.sharedMemory != null) {
+			arguments.add(this.sharedMemory.getPath());
+			arguments.add(String.valueOf(this.sharedMemory.getSize()));
+			arguments.add(String.valueOf(this.sharedMemory.getThreshold()));
+		}
+		try {
+			this.process = new ProcessBuilder(arguments).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		}
+		catch (IOException e) {
+			if (this.sharedMemory != null) {
+				this.sharedMemory.close();
+			}
+			throw e;
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(this.process.getOutputStream()));
+		this.in = new DataInputStream(new BufferedInputStream(this.process.getInputStream()));
+		ScheduledFuture<?> stop = watch();
+		try {
+			write(script.getSource());
+			write(script.getReturnVariable());
+			writeJson(script.getVariables());
+			this.out.flush();
+			Map<?, ?> headersUsage = (Map<?, ?>) read(false);
+			this.scriptUsesHeaders = !Boolean.FALSE.equals(headersUsage.get("headers"));
+			this.functionsIgnoringHeaders = (Collection<?>) headersUsage.get("functions_ignoring_headers");
+		}
+		catch (IOException e) {
+			close();
+			throw timedOut(e);
+		}
+		catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+		finally {
+			unwatch(stop);
+		}
+	}
+
+	CPythonWorkerPool.Script getScript() {
+		return this.script;
+	}
+
+	boolean isAlive() {
+		return this.process.isAlive();
+	}
+
+	/**
+	 * @param function the function to call, or null to run the whole script.
+	 * @return whether the script, or the function, may read the headers.
+	 */
+	boolean usesHeaders(String function) {
+		return this.scriptUsesHeaders || function != null && !this.functionsIgnoringHeaders.contains(function);
+	}
+
+	/**
+	 * Run the script, or call the function, on this worker. The headers are only sent if the script may read them.
+	 * @param payloadVariable the name of the payload variable.
+	 * @param function the function to call, or null to run the whole script.
+	 * @param variables the other variables.
+	 * @param payload the payload.
+	 * @param binary whether to return strings and JSON results as their UTF-8 bytes rather than decoding them.
+	 * @param metrics the metrics.
+	 * @param start the start time of the bind phase.
+	 * @return the result.
+	 * @throws IllegalStateException if the script fails.
+	 * @throws IOException if the worker cannot be reached, typically because it has exited, or did not respond in
+	 * time and was stopped.
+	 */
+	Object execute(String payloadVariable, String function, Map<String, Object> variables, Object payload,
+		boolean binary, ScriptMetrics metrics, long start) throws IOException {
+		if (this.sharedMemory != null) {
+			this.sharedMemory.reset();
+		}
+		ScheduledFuture<?> stop = watch();
+		try {
+			this.out.write('X');
+			write(payloadVariable);
+			write(function);
+			writeVariables(variables, usesHeaders(function));
+			write(payload);
+			this.out.flush();
+			start = metrics.record(Phase.BIND, start);
+			Object result = read(binary);
+			metrics.record(Phase.EXECUTE, start);
+			return result;
+		}
+		catch (IOException e) {
+			throw timedOut(e);
+		}
+		finally {
+			unwatch(stop);
+		}
+	}
+
+	/**
+	 * Drop the namespace the script runs in when a function is called, so the next request defines it again.
+	 * @throws IOException if the worker cannot be reached or does not respond in time.
+	 */
+	void resetNamespace() throws IOException {
+		ScheduledFuture<?> stop = watch();
+		try {
+			this.out.write('R');
+			this.out.flush();
+			read(false);
+		}
+		catch (IOException e) {
+			throw timedOut(e);
+		}
+		finally {
+			unwatch(stop);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (this.sharedMemory != null) {
+			this.sharedMemory.close();
+		}
+		this.process.destroy();
+		try {
+			if (!this.process.waitFor(1, TimeUnit.SECONDS)) {
+				this.process.destroyForcibly();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.process.destroyForcibly();
+		}
+	}
+
+	/*
+	 * Stops the process if the exchange that follows does not complete within the timeout; the blocked read or write
+	 * then fails. Returns null if there is no timeout.
+	 */
+	private ScheduledFuture<?> watch() {
+		if (this.timeout <= 0) {
+			return null;
+		}
+		return watchdog.schedule(() -> {
+			this.timedOut = true;
+			this.process.destroyForcibly();
+		}, this.timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private static void unwatch(ScheduledFuture<?> stop) {
+		if (stop != null) {
+			stop.cancel(false);
+		}
+	}
+
+	private IOException timedOut(IOException e) {
+		if (!this.timedOut) {
+			return e;
+		}
+		return new IOException(String.format("The Python worker for %s did not respond within %d ms and was stopped",
+			this.script.getPath(), this.timeout), e);
+	}
+
+	private static CustomizableThreadFactory daemonThreadFactory() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("python-worker-watchdog-");
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
+	private void write(Object value) throws IOException {
+		if (value == null) {
+			this.out.write('N');
+		}
+		else if (value instanceof String) {
+			write('S', ((String) value).getBytes(StandardCharsets.UTF_8));
+		}
+		else if (value instanceof byte[]) {
+			write('B', (byte[]) value);
+		}
+		else if (value instanceof Collection) {
+			Collection<?> values = (Collection<?>) value;
+			this.out.write('L');
+			this.out.writeInt(values.size());
+			for (Object item : values) {
+				write(item);
+			}
+		}
+		else {
+			writeJson(value);
+		}
+	}
+
+	private void writeJson(Object value) throws IOException {
+		write('J', objectMapper.writeValueAsBytes(jsonValue(value)));
+	}
+
+	private void writeVariables(Map<String, Object> variables, boolean headers) throws IOException {
+		Map<String, Object> json = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> variable : variables.entrySet()) {
+			if (headers || !variable.getKey().equals("headers")) {
+				json.put(variable.getKey(), jsonValue(variable.getValue()));
+			}
+		}
+		write('J', objectMapper.writeValueAsBytes(json));
+	}
+
+	private void write(char type, byte[] data) throws IOException {
+		int offset = this.sharedMemory == null ? -1 : this.sharedMemory.write(data);
+		if (offset >= 0) {
+			this.out.write('M');
+			this.out.write(type);
+			this.out.writeInt(offset);
+			this.out.writeInt(data.length);
+			return;
+		}
+		this.out.write(type);
+		this.out.writeInt(data.length);
+		this.out.write(data);
+	}
+
+	private Object read(boolean binary) throws IOException {
+		int type = this.in.read();
+		switch (type) {
+		case -1:
+			throw new EOFException("The Python worker has exited");
+		case 'N':
+			return null;
+		case 'L':
+			int size = this.in.readInt();
+			List<Object> values = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				values.add(read(binary));
+			}
+			return values;
+		default:
+			ByteBuffer data;
+			if (type == 'M') {
+				Assert.state(this.sharedMemory != null, "Shared memory is not enabled");
+				type = this.in.read();
+				int offset = this.in.readInt();
+				data = this.sharedMemory.read(offset, this.in.readInt());
+			}
+			else {
+				byte[] bytes = new byte[this.in.readInt()];
+				this.in.readFully(bytes);
+				data = ByteBuffer.wrap(bytes);
+			}
+			if (binary && (type == 'S' || type == 'J')) {
+				return bytes(data);
+			}
+			switch (type) {
+			case 'S':
+				return StandardCharsets.UTF_8.decode(data).toString();
+			case 'B':
+				return bytes(data);
+			case 'J':
+				return objectMapper.readValue(new ByteBufferBackedInputStream(data), Object.class);
+			case 'E':
+				throw new IllegalStateException(String.format("Script %s failed:%n%s", this.script.getPath(),
+					StandardCharsets.UTF_8.decode(data)));
+			default:
+				throw new IOException(String.format("Unexpected value type '%c' from the Python worker", type));
+			}
+		}
+	}
+
+	/*
+	 * Strings and JSON are decoded straight from shared memory; a byte array result has to be copied out of it, as
+	 * the region is reused by the next request.
+	 */
+	private static byte[] bytes(ByteBuffer data) {
+		if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) {
+			return data.array();
+		}
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		return bytes;
+	}
+
+	/*
+	 * Variables are sent as JSON. Maps, such as the message headers, and collections are converted recursively, and
+	 * values JSON has no type for are converted to strings.
+	 */
+	private static Object jsonValue(Object value) {
+		if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof Map) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				map.put(String.valueOf(entry.getKey()), jsonValue(entry.getValue()));
+			}
+			return map;
+		}
+		if (value instanceof Collection) {
+			List<Object> list = new ArrayList<>();
+			for (Object item : (Collection<?>) value) {
+				list.add(jsonValue(item));
+			}
+			return list;
+		}
+		if (value instanceof byte[]) {
+			return new String((byte[]) value, StandardCharsets.UTF_8);
+		}
+		return value.toString();
+	}
+}
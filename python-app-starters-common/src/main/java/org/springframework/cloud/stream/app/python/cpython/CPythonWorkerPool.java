@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.cpython;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool.ExhaustedPolicy;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of long-lived CPython worker processes, all running the same script. Workers are started on demand,
+ * up to the pool size, and each one is used by a single thread at a time. A worker that exits, or does not respond
+ * within the timeout and is stopped, is discarded and replaced by a new one on the next demand. When the script is
+ * replaced, idle workers are stopped and busy ones are stopped when they are returned.
+ **/
+public class CPythonWorkerPool implements AutoCloseable {
+
+	private final static Log logger = LogFactory.getLog(CPythonWorkerPool.class);
+
+	private static final long WAIT_SLICE = 100;
+
+	private final BlockingQueue<CPythonWorker> workers = new LinkedBlockingQueue<>();
+
+	private final AtomicInteger started = new AtomicInteger();
+
+	private final List<String> command;
+
+	private final int size;
+
+	private final ExhaustedPolicy exhaustedPolicy;
+
+	private final long maxWait;
+
+	private volatile int sharedMemorySize;
+
+	private volatile int sharedMemoryThreshold;
+
+	private volatile long timeout;
+
+	private volatile Map<String, Object> variables = Collections.emptyMap();
+
+	private volatile Script script;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param command the command that runs CPython, e.g. 'python3' or '/opt/venv/bin/python'.
+	 * @param size the maximum number of worker processes.
+	 * @param exhaustedPolicy the policy to apply when all workers are in use. {@link ExhaustedPolicy#CALLER_RUNS}
+	 * starts a worker for the call and stops it afterwards.
+	 * @param maxWait maximum time in milliseconds to wait for a worker when the policy is
+	 * {@link ExhaustedPolicy#BLOCK}. A negative value waits indefinitely.
+	 */
+	public CPythonWorkerPool(String command, int size, ExhaustedPolicy exhaustedPolicy, long maxWait) {
+		Assert.hasText(command, "'command' cannot be empty");
+		Assert.isTrue(size > 0, "'size' must be greater than 0");
+		Assert.notNull(exhaustedPolicy, "'exhaustedPolicy' cannot be null");
+		this.command = Arrays.asList(StringUtils.tokenizeToStringArray(command, " "));
+		this.size = size;
+		this.exhaustedPolicy = exhaustedPolicy;
+		this.maxWait = maxWait;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Pass values of at least the threshold length to the workers through a memory-mapped file instead of the pipes.
+	 * Applies to workers started afterwards.
+	 * @param size the size in bytes of the region for each direction, per worker, or 0 to disable shared memory.
+	 * @param threshold the minimum length in bytes of a value to pass through shared memory.
+	 */
+	public void setSharedMemory(int size, int threshold) {
+		Assert.isTrue(size >= 0, "'size' cannot be negative");
+		this.sharedMemorySize = size;
+		this.sharedMemoryThreshold = threshold;
+	}
+
+	/**
+	 * Stop a worker that does not respond to a request, or to the script it is started with, within the timeout. The
+	 * call then fails and the worker is replaced. Applies to workers started afterwards.
+	 * @param timeout the timeout in milliseconds, or 0 to wait indefinitely.
+	 */
+	public void setTimeout(long timeout) {
+		Assert.isTrue(timeout >= 0, "'timeout' cannot be negative");
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the source of the script the workers run, or null if not set.
+	 */
+	public String getSource() {
+		Script script = this.script;
+		return script == null ? null : script.getSource();
+	}
+
+	/**
+	 * Replace the script the workers run. The script is compiled on a new worker first, and is only swapped in if it
+	 * compiles; that worker then joins the pool.
+	 * @param path the path of the script, used in error messages.
+	 * @param source the script source.
+	 * @param returnVariable the name of the variable holding the result.
+	 * @throws IllegalStateException if the script does not compile.
+	 */
+	public synchronized void setScript(String path, String source, String returnVariable) {
+		Assert.state(!this.closed, "The worker pool is closed");
+		Script script = new Script(path, source, returnVariable, this.variables);
+		CPythonWorker worker = start(script);
+		this.script = script;
+		discardIdle();
+		if (this.started.incrementAndGet() <= this.size) {
+			this.workers.offer(worker);
+		}
+		else {
+			this.started.decrementAndGet();
+			worker.close();
+		}
+	}
+
+	/**
+	 * Replace the variables bound for every request. They are sent to each worker once, when it starts, so idle
+	 * workers are stopped, and busy ones when they are returned.
+	 * @param variables the variables.
+	 */
+	public synchronized void setVariables(Map<String, Object> variables) {
+		if (variables.equals(this.variables)) {
+			return;
+		}
+		this.variables = Collections.unmodifiableMap(new HashMap<>(variables));
+		Script script = this.script;
+		if (script != null) {
+			this.script = new Script(script.getPath(), script.getSource(), script.getReturnVariable(),
+				this.variables);
+			discardIdle();
+		}
+	}
+
+	/**
+	 * Run the callback on a worker borrowed from the pool.
+	 * @param callback the callback.
+	 * @param <T> the result type.
+	 * @return the result of the callback.
+	 * @throws IllegalStateException if the worker fails; the worker is replaced.
+	 */
+	<T> T execute(WorkerCallback<T> callback) {
+		Assert.state(!this.closed, "The worker pool is closed");
+		Assert.state(this.script != null, "No script has been set");
+		CPythonWorker worker = borrow();
+		if (worker == null) {
+			worker = start(this.script);
+			try {
+				return callback.doWithWorker(worker);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("The Python worker failed", e);
+			}
+			finally {
+				worker.close();
+			}
+		}
+		boolean failed = true;
+		try {
+			T result = callback.doWithWorker(worker);
+			failed = false;
+			return result;
+		}
+		catch (IOException e) {
+			logger.warn(String.format("Python worker for %s failed and will be replaced", worker.getScript().getPath()),
+				e);
+			throw new IllegalStateException("The Python worker failed", e);
+		}
+		catch (RuntimeException e) {
+			failed = !worker.isAlive();
+			throw e;
+		}
+		finally {
+			if (failed || this.closed || worker.getScript() != this.script) {
+				discard(worker);
+			}
+			else {
+				this.workers.offer(worker);
+			}
+		}
+	}
+
+	/**
+	 * Reset the namespace of each idle worker, so a function is defined again on the next request. A worker that
+	 * fails to reset is replaced.
+	 */
+	public void resetNamespaces() {
+		List<CPythonWorker> idle = new ArrayList<>();
+		this.workers.drainTo(idle);
+		for (CPythonWorker worker : idle) {
+			try {
+				worker.resetNamespace();
+				this.workers.offer(worker);
+			}
+			catch (IOException e) {
+				logger.warn(String.format("Python worker for %s failed and will be replaced",
+					worker.getScript().getPath()), e);
+				discard(worker);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		CPythonWorker worker;
+		while ((worker = this.workers.poll()) != null) {
+			discard(worker);
+		}
+	}
+
+	/*
+	 * Returns null if the caller should run on a transient worker.
+	 */
+	private CPythonWorker borrow() {
+		CPythonWorker worker = tryBorrow(this.workers.poll());
+		if (worker != null) {
+			return worker;
+		}
+
+		switch (this.exhaustedPolicy) {
+		case REJECT:
+			throw new RejectedExecutionException(String.format("All %d Python workers are in use", this.size));
+		case CALLER_RUNS:
+			return null;
+		default:
+			// wait in slices, as a worker that fails is not returned but frees a slot to start a new one
+			long deadline = this.maxWait < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + this.maxWait;
+			while (worker == null) {
+				long wait = Math.min(WAIT_SLICE, deadline - System.currentTimeMillis());
+				if (wait <= 0) {
+					throw new RejectedExecutionException(
+						String.format("Timed out after %d ms waiting for a Python worker", this.maxWait));
+				}
+				try {
+					worker = tryBorrow(this.workers.poll(wait, TimeUnit.MILLISECONDS));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException("Interrupted waiting for a Python worker", e);
+				}
+			}
+			return worker;
+		}
+	}
+
+	/*
+	 * Returns the idle worker if it is usable, otherwise a new worker if the pool is not full, otherwise null.
+	 */
+	private CPythonWorker tryBorrow(CPythonWorker idle) {
+		CPythonWorker worker = idle;
+		while (worker != null) {
+			if (worker.isAlive() && worker.getScript() == this.script) {
+				return worker;
+			}
+			if (!worker.isAlive()) {
+				logger.warn(String.format("Python worker for %s has exited and will be replaced",
+					worker.getScript().getPath()));
+			}
+			discard(worker);
+			worker = this.workers.poll();
+		}
+		if (this.started.getAndIncrement() < this.size) {
+			logger.debug(String.format("Starting Python worker %d of %d", this.started.get(), this.size));
+			try {
+				return start(this.script);
+			}
+			catch (RuntimeException e) {
+				this.started.decrementAndGet();
+				throw e;
+			}
+		}
+		this.started.decrementAndGet();
+		return null;
+	}
+
+	private CPythonWorker start(Script script) {
+		try {
+			return new CPythonWorker(this.command, script, this.sharedMemorySize, this.sharedMemoryThreshold,
+				this.timeout);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(String.format("Cannot start a Python worker with '%s'",
+				StringUtils.collectionToDelimitedString(this.command, " ")), e);
+		}
+	}
+
+	private void discardIdle() {
+		CPythonWorker idle;
+		while ((idle = this.workers.poll()) != null) {
+			discard(idle);
+		}
+	}
+
+	private void discard(CPythonWorker worker) {
+		this.started.decrementAndGet();
+		worker.close();
+	}
+
+	/**
+	 * A callback run on a worker.
+	 * @param <T> the result type.
+	 */
+	@FunctionalInterface
+	interface WorkerCallback<T> {
+
+		T doWithWorker(CPythonWorker worker) throws IOException;
+	}
+
+	/**
+	 * A script source together with its path, the name of the variable holding the result and the variables bound
+	 * for every request.
+	 */
+	static class Script {
+
+		private final String path;
+
+		private final String source;
+
+		private final String returnVariable;
+
+		private final Map<String, Object> variables;
+
+		Script(String path, String source, String returnVariable, Map<String, Object> variables) {
+			this.path = path;
+			this.source = source;
+			this.returnVariable = returnVariable;
+			this.variables = variables;
+		}
+
+		String getPath() {
+			return this.path;
+		}
+
+		String getSource() {
+			return this.source;
+		}
+
+		String getReturnVariable() {
+			return this.returnVariable;
+		}
+
+		Map<String, Object> getVariables() {
+			return this.variables;
+		}
+	}
+}
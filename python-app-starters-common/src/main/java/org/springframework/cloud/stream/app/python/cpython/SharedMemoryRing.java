@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.cpython;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A memory-mapped file shared by a {@link CPythonWorker} and its process, so large values cross without going through
+ * the pipes. The first half is a ring written by the JVM and read by the worker, the second half a ring written by
+ * the worker and read by the JVM; only offsets and lengths are sent over the pipes.
+ * <p>
+ * A request or response may use at most one half, so its values never overwrite each other. The file is created in
+ * /dev/shm if it exists, so it is backed by memory rather than disk. The mapping is released when the ring is closed,
+ * rather than when the buffer is garbage collected.
+ **/
+class SharedMemoryRing implements AutoCloseable {
+
+	private final static Log logger = LogFactory.getLog(SharedMemoryRing.class);
+
+	private static final File SHM = new File("/dev/shm");
+
+	private final Path path;
+
+	private final int size;
+
+	private final int threshold;
+
+	private final MappedByteBuffer buffer;
+
+	private int position;
+
+	private int used;
+
+	private boolean closed;
+
+	/**
+	 * @param size the size of each half in bytes.
+	 * @param threshold the minimum length of a value to pass through shared memory.
+	 * @throws IOException if the file cannot be created or mapped.
+	 */
+	SharedMemoryRing(int size, int threshold) throws IOException {
+		this.size = size;
+		this.threshold = threshold;
+		this.path = SHM.isDirectory() && SHM.canWrite() ?
+			Files.createTempFile(SHM.toPath(), "python-worker", ".ring") :
+			Files.createTempFile("python-worker", ".ring");
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * size);
+		}
+		catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(this.path);
+			throw e;
+		}
+	}
+
+	String getPath() {
+		return this.path.toString();
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	int getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Start a new request, which may use the whole of the JVM half.
+	 */
+	void reset() {
+		this.used = 0;
+	}
+
+	/**
+	 * Write a value into the JVM half, wrapping around to its start if it does not fit at the current position.
+	 * @param data the value.
+	 * @return the offset of the value, or -1 if it is below the threshold or does not fit in this request.
+	 */
+	int write(byte[] data) {
+		Assert.state(!this.closed, "The shared memory is closed");
+		if (data.length < this.threshold || this.used + data.length > this.size) {
+			return -1;
+		}
+		if (this.position + data.length > this.size) {
+			this.position = 0;
+		}
+		int offset = this.position;
+		ByteBuffer target = this.buffer.duplicate();
+		target.position(offset);
+		target.put(data);
+		this.position += data.length;
+		this.used += data.length;
+		return offset;
+	}
+
+	/**
+	 * Read a value written by either side, without copying it.
+	 * @param offset the offset of the value.
+	 * @param length the length of the value.
+	 * @return a read-only view of the value, valid until the next request or until the ring is closed.
+	 */
+	ByteBuffer read(int offset, int length) {
+		Assert.state(!this.closed, "The shared memory is closed");
+		if (offset < 0 || length < 0 || (long) offset + length > 2L * this.size) {
+			throw new IllegalStateException(
+				String.format("Invalid shared memory region at %d with length %d", offset, length));
+		}
+		ByteBuffer source = this.buffer.asReadOnlyBuffer();
+		source.position(offset);
+		source.limit(offset + length);
+		return source.slice();
+	}
+
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		unmap(this.buffer);
+		try {
+			Files.deleteIfExists(this.path);
+		}
+		catch (IOException e) {
+			this.path.toFile().deleteOnExit();
+		}
+	}
+
+	/*
+	 * There is no public API to unmap a buffer: Java 9 and later have Unsafe.invokeCleaner, Java 8 the cleaner of the
+	 * buffer itself. If neither works, the mapping is released when the buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		}
+		catch (NoSuchMethodException e) {
+			// Java 8
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Cannot unmap the shared memory", e);
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Cannot unmap the shared memory", e);
+		}
+	}
+}
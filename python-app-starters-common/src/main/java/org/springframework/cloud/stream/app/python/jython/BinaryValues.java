@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import org.python.core.BufferProtocol;
+import org.python.core.Py;
+import org.python.core.PyBUF;
+import org.python.core.PyBuffer;
+import org.python.core.PyList;
+import org.python.core.PyMemoryView;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.PyTuple;
+import org.python.core.PyUnicode;
+import org.python.core.buffer.SimpleBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts payloads and results in binary mode. A byte array payload is bound as a read-only memoryview over the
+ * array, so a script can slice it, or pass it to anything that accepts a buffer, without copying it. A result that is
+ * the payload, or a view over the whole of it, becomes the payload array itself. Any other result that exports a
+ * buffer, such as a bytearray, a memoryview or an array, is copied, since the script may still hold and change it. A
+ * str becomes its bytes and a unicode its UTF-8 encoding.
+ **/
+abstract class BinaryValues {
+
+	/**
+	 * @param value a payload, or a list of payloads for a batch.
+	 * @return the payload as a Python object.
+	 */
+	static PyObject toPython(Object value) {
+		if (value instanceof byte[]) {
+			return new PyMemoryView(new ReadOnlyBytes((byte[]) value));
+		}
+		if (value instanceof List) {
+			PyList list = new PyList();
+			for (Object item : (List<?>) value) {
+				list.append(toPython(item));
+			}
+			return list;
+		}
+		return Py.java2py(value);
+	}
+
+	/**
+	 * @param value a result, or a list of results for a batch.
+	 * @return the result as a byte array, or a list of them, if it is binary or text; otherwise as a Java object.
+	 */
+	static Object toJava(PyObject value) {
+		if (value instanceof PyUnicode) {
+			return value.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		if (value instanceof PyString) {
+			return ((PyString) value).toBytes();
+		}
+		if (value instanceof BufferProtocol) {
+			return bytes((BufferProtocol) value);
+		}
+		if (value instanceof PyList || value instanceof PyTuple) {
+			List<Object> list = new ArrayList<>(value.__len__());
+			for (PyObject item : value.asIterable()) {
+				list.add(toJava(item));
+			}
+			return list;
+		}
+		return value.__tojava__(Object.class);
+	}
+
+	private static byte[] bytes(BufferProtocol value) {
+		PyBuffer buffer = value.getBuffer(PyBUF.FULL_RO);
+		try {
+			if (buffer.getObj() instanceof ReadOnlyBytes && buffer.isContiguous('C')) {
+				byte[] payload = ((ReadOnlyBytes) buffer.getObj()).bytes;
+				ByteBuffer view = buffer.getNIOByteBuffer();
+				if (view.position() == 0 && view.remaining() == payload.length) {
+					return payload;
+				}
+			}
+			byte[] bytes = new byte[buffer.getLen()];
+			buffer.copyTo(bytes, 0);
+			return bytes;
+		}
+		finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Exports a byte array as a read-only buffer.
+	 */
+	private static class ReadOnlyBytes extends PyObject implements BufferProtocol {
+
+		private final byte[] bytes;
+
+		ReadOnlyBytes(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public PyBuffer getBuffer(int flags) {
+			return new SimpleBuffer(flags, this, this.bytes);
+		}
+	}
+}
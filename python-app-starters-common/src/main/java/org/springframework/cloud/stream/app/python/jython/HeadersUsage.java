@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import org.python.antlr.PythonTree;
+import org.python.antlr.Visitor;
+import org.python.antlr.ast.Exec;
+import org.python.antlr.ast.FunctionDef;
+import org.python.antlr.ast.Module;
+import org.python.antlr.ast.Name;
+import org.python.antlr.ast.expr_contextType;
+import org.python.antlr.base.expr;
+import org.python.antlr.base.mod;
+import org.python.antlr.base.stmt;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.ParserFacade;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whether a script reads the 'headers' variable, and which of its top-level functions ignore their headers argument,
+ * found from its syntax tree, so headers need not be bound for scripts that never use them. A script that may look up
+ * variables dynamically, with globals(), locals(), vars(), eval or exec, is assumed to read them.
+ **/
+class HeadersUsage {
+
+	static final HeadersUsage ALL = new HeadersUsage(true, Collections.emptySet());
+
+	private static final Set<String> DYNAMIC_LOOKUPS = new HashSet<>(
+		Arrays.asList("globals", "locals", "vars", "eval", "execfile", "__import__"));
+
+	private final boolean script;
+
+	private final Set<String> functionsIgnoringHeaders;
+
+	private HeadersUsage(boolean script, Set<String> functionsIgnoringHeaders) {
+		this.script = script;
+		this.functionsIgnoringHeaders = functionsIgnoringHeaders;
+	}
+
+	/**
+	 * @param function the function called for each message, or null if the whole script runs.
+	 * @return whether the script, or the function, may read the headers.
+	 */
+	boolean isUsedBy(String function) {
+		return this.script || function != null && !this.functionsIgnoringHeaders.contains(function);
+	}
+
+	/**
+	 * @param source the script source.
+	 * @param filename the file name of the script.
+	 * @return the usage, or {@link #ALL} if the script cannot be parsed.
+	 */
+	static HeadersUsage of(String source, String filename) {
+		mod tree;
+		Set<String> names;
+		try {
+			tree = ParserFacade.parse(source, CompileMode.exec, filename, new CompilerFlags());
+			names = names(tree);
+		}
+		catch (Exception e) {
+			return ALL;
+		}
+		if (names.contains(null) || !Collections.disjoint(names, DYNAMIC_LOOKUPS)) {
+			return ALL;
+		}
+		Set<String> ignoring = new HashSet<>();
+		if (tree instanceof Module) {
+			Map<String, Integer> definitions = new HashMap<>();
+			for (stmt statement : ((Module) tree).getInternalBody()) {
+				if (statement instanceof FunctionDef) {
+					definitions.merge(((FunctionDef) statement).getInternalName(), 1, Integer::sum);
+				}
+			}
+			for (stmt statement : ((Module) tree).getInternalBody()) {
+				if (statement instanceof FunctionDef && definitions.get(((FunctionDef) statement).getInternalName()) == 1
+					&& ignoresHeaders((FunctionDef) statement)) {
+					ignoring.add(((FunctionDef) statement).getInternalName());
+				}
+			}
+		}
+		return new HeadersUsage(names.contains("headers"), ignoring);
+	}
+
+	/*
+	 * A function ignores its headers if its second parameter is a plain name that its body never reads, and the body
+	 * does not read the 'headers' variable either.
+	 */
+	private static boolean ignoresHeaders(FunctionDef function) {
+		List<expr> parameters = function.getInternalArgs().getInternalArgs();
+		if (!function.getInternalDecorator_list().isEmpty() || parameters.size() < 2 ||
+			!(parameters.get(1) instanceof Name)) {
+			return false;
+		}
+		Set<String> names = new HashSet<>();
+		try {
+			for (stmt statement : function.getInternalBody()) {
+				names.addAll(names(statement));
+			}
+		}
+		catch (Exception e) {
+			return false;
+		}
+		return !names.contains(((Name) parameters.get(1)).getInternalId()) && !names.contains("headers");
+	}
+
+	/*
+	 * Returns the names read or assigned in the tree, but not those that only name a parameter. An exec statement is
+	 * recorded as null.
+	 */
+	private static Set<String> names(PythonTree tree) throws Exception {
+		Set<String> names = new HashSet<>();
+		new Visitor() {
+
+			@Override
+			public Object visitName(Name node) throws Exception {
+				if (node.getInternalCtx() != expr_contextType.Param) {
+					names.add(node.getInternalId());
+				}
+				return super.visitName(node);
+			}
+
+			@Override
+			public Object visitExec(Exec node) throws Exception {
+				names.add(null);
+				return super.visitExec(node);
+			}
+
+		}.visit(tree);
+		return names;
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.aggregator.CorrelationStrategy;
+import org.springframework.integration.aggregator.MessageCountReleaseStrategy;
+import org.springframework.integration.aggregator.MessageGroupProcessor;
+import org.springframework.expression.Expression;
+import org.springframework.http.MediaType;
+import org.springframework.integration.dsl.AggregatorSpec;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ErrorMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A {@link MessageGroupProcessor} that runs a Python script once for a group of messages and releases one message per
+ * result, in order, each with the headers of the message it was computed from.
+ **/
+public class JythonBatchProcessor implements MessageGroupProcessor {
+
+	/**
+	 * The header holding the partition a message was received from, set by the Kafka binder.
+	 */
+	public static final String PARTITION_HEADER = "kafka_receivedPartitionId";
+
+	private final AbstractPythonScriptExecutor executor;
+
+	private final Map<String, Object> additionalVariables;
+
+	private final String[] tags;
+
+	private boolean pushSequenceDetails;
+
+	private boolean popSequenceDetails;
+
+	private MediaType contentType;
+
+	private MessageChannel errorChannel;
+
+	public JythonBatchProcessor(AbstractPythonScriptExecutor executor) {
+		this(executor, null);
+	}
+
+	/**
+	 * @param executor the script executor.
+	 * @param additionalVariables additional bind variables.
+	 * @param tags additional metric tags as key/value pairs.
+	 */
+	public JythonBatchProcessor(AbstractPythonScriptExecutor executor, Map<String, Object> additionalVariables,
+		String... tags) {
+		this.executor = executor;
+		this.additionalVariables = additionalVariables;
+		this.tags = tags;
+	}
+
+	/**
+	 * Add sequence details to the released messages, so a downstream aggregator can reassemble the batch.
+	 * @param pushSequenceDetails true to push sequence details.
+	 */
+	public void setPushSequenceDetails(boolean pushSequenceDetails) {
+		this.pushSequenceDetails = pushSequenceDetails;
+	}
+
+	/**
+	 * Remove the sequence details pushed by an upstream batch from the released messages.
+	 * @param popSequenceDetails true to pop sequence details.
+	 */
+	public void setPopSequenceDetails(boolean popSequenceDetails) {
+		this.popSequenceDetails = popSequenceDetails;
+	}
+
+	/**
+	 * Set the content type header of the released messages whose result is a byte array, as returned in binary mode.
+	 * @param contentType the content type, or null to keep that of each message.
+	 */
+	public void setContentType(MediaType contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Send an {@link ErrorMessage} for each message of a batch the script fails on, instead of throwing. A batch may be
+	 * released on the aggregator's timer thread, where a thrown exception is only logged, and the binder has already
+	 * acknowledged its messages, so this is the only way to see which messages were lost.
+	 * @param errorChannel the error channel, or null to throw.
+	 */
+	public void setErrorChannel(MessageChannel errorChannel) {
+		this.errorChannel = errorChannel;
+	}
+
+	@Override
+	public Object processMessageGroup(MessageGroup group) {
+		List<Message<?>> messages = new ArrayList<>(group.getMessages());
+		List<Object> results;
+		try {
+			results = this.executor.executeBatch(messages, this.additionalVariables, this.tags);
+		}
+		catch (RuntimeException e) {
+			if (this.errorChannel == null) {
+				throw e;
+			}
+			String description = String.format("The script failed on a batch of %d messages", messages.size());
+			for (Message<?> message : messages) {
+				MessageHandlingException exception = new MessageHandlingException(message, description, e);
+				this.errorChannel.send(new ErrorMessage(exception, message));
+			}
+			return null;
+		}
+		Object batchId = messages.get(0).getHeaders().getId();
+		List<Message<?>> replies = new ArrayList<>(results.size());
+		for (int i = 0; i < results.size(); i++) {
+			Message<?> message = messages.get(i);
+			MessageBuilder<?> builder = MessageBuilder.withPayload(results.get(i)).copyHeaders(message.getHeaders());
+			if (this.popSequenceDetails) {
+				if (message.getHeaders().containsKey(IntegrationMessageHeaderAccessor.SEQUENCE_DETAILS)) {
+					builder.popSequenceDetails();
+				}
+				else {
+					builder.removeHeaders(IntegrationMessageHeaderAccessor.CORRELATION_ID,
+						IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER,
+						IntegrationMessageHeaderAccessor.SEQUENCE_SIZE);
+				}
+			}
+			if (this.pushSequenceDetails) {
+				builder.pushSequenceDetails(batchId, i + 1, results.size());
+			}
+			if (this.contentType != null && results.get(i) instanceof byte[]) {
+				builder.setHeader(MessageHeaders.CONTENT_TYPE, this.contentType);
+			}
+			replies.add(builder.build());
+		}
+		return replies;
+	}
+
+	/**
+	 * Configure an aggregator that collects up to {@link JythonScriptProperties#getBatchSize()} messages with the same
+	 * {@link #batchKey(Expression) key}, or whatever arrived within {@link JythonScriptProperties#getBatchTimeout()},
+	 * and hands them to a batch processor.
+	 * @param properties the script properties.
+	 * @param processor the batch processor.
+	 * @return the aggregator configurer.
+	 */
+	public static Consumer<AggregatorSpec> batchAggregator(JythonScriptProperties properties,
+		JythonBatchProcessor processor) {
+		return batchAggregator(properties, processor, batchKey(properties.getBatchKeyExpression()));
+	}
+
+	/**
+	 * A correlation strategy that groups messages by a key, so messages from different partitions are never batched
+	 * together.
+	 * @param keyExpression the expression for the key; if null, the {@link #PARTITION_HEADER partition}.
+	 * @return the correlation strategy; messages without a key are batched together.
+	 */
+	public static CorrelationStrategy batchKey(Expression keyExpression) {
+		return message -> {
+			Object key = keyExpression != null ? keyExpression.getValue(message)
+				: message.getHeaders().get(PARTITION_HEADER);
+			return key != null ? key : JythonBatchProcessor.class.getName();
+		};
+	}
+
+	/**
+	 * Configure an aggregator that collects batches by the given correlation strategy.
+	 * @param properties the script properties.
+	 * @param processor the batch processor.
+	 * @param correlationStrategy the correlation strategy; null to correlate by sequence details.
+	 * @return the aggregator configurer.
+	 */
+	public static Consumer<AggregatorSpec> batchAggregator(JythonScriptProperties properties,
+		JythonBatchProcessor processor, CorrelationStrategy correlationStrategy) {
+		return aggregator -> {
+			if (correlationStrategy != null) {
+				aggregator.correlationStrategy(correlationStrategy)
+					.releaseStrategy(new MessageCountReleaseStrategy(properties.getBatchSize()));
+			}
+			// the processor returns null for a batch it sent to the error channel; don't wrap that in a message
+			aggregator.outputProcessor(processor)
+				.popSequence(false)
+				.groupTimeout(properties.getBatchTimeout())
+				.sendPartialResultOnExpiry(true)
+				.expireGroupsUponCompletion(true)
+				.expireGroupsUponTimeout(true);
+		};
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.python.core.BytecodeLoader;
+import org.python.core.Py;
+import org.python.core.PyCode;
+import org.python.core.PyList;
+import org.python.core.PyModule;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.PySystemState;
+import org.python.core.imp;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A disk-backed cache of Jython bytecode, keyed by a hash of the source, its module name and the Jython bytecode
+ * version. A script or module whose source has not changed is loaded from the cache instead of being compiled again,
+ * also after a restart, and regardless of the modification time of its file.
+ * <p>
+ * The cache compiles the scripts of a {@link JythonScriptExecutor}, and, once {@link #install(PySystemState)
+ * installed}, modules imported from source files in directories, such as the clone of a git repository. Modules in
+ * jars, such as the Python standard library, are imported as usual. The system state of a {@code PythonInterpreter}
+ * is usually shared by the whole JVM, so {@link #uninstall()} should be called once the cache is no longer used.
+ * <p>
+ * The cache holds at most a maximum number of entries. A hit marks an entry as used by setting its modification time,
+ * and the least recently used entries are deleted when a new one is added.
+ **/
+public class JythonBytecodeCache {
+
+	private final static Log logger = LogFactory.getLog(JythonBytecodeCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static final String SUFFIX = ".class";
+
+	private final Path directory;
+
+	private final int maxEntries;
+
+	private final PathHook pathHook = new PathHook();
+
+	private final Set<PySystemState> systemStates = Collections.newSetFromMap(new WeakHashMap<>());
+
+	/**
+	 * @param directory the cache directory, created if it does not exist.
+	 */
+	public JythonBytecodeCache(File directory) {
+		this(directory, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param directory the cache directory, created if it does not exist.
+	 * @param maxEntries the maximum number of compiled scripts and modules to keep.
+	 */
+	public JythonBytecodeCache(File directory, int maxEntries) {
+		Assert.notNull(directory, "'directory' cannot be null");
+		Assert.isTrue(maxEntries > 0, "'maxEntries' must be greater than 0");
+		this.directory = directory.toPath().toAbsolutePath();
+		this.maxEntries = maxEntries;
+	}
+
+	public File getDirectory() {
+		return this.directory.toFile();
+	}
+
+	/**
+	 * Load the bytecode of a source from the cache, or compile it and add it to the cache.
+	 * @param name the module name.
+	 * @param source the source.
+	 * @param filename the file name of the source, used in tracebacks.
+	 * @return the code.
+	 */
+	public PyCode compile(String name, byte[] source, String filename) {
+		Path cached = this.directory.resolve(key(name, source) + SUFFIX);
+		if (Files.isRegularFile(cached)) {
+			try {
+				PyCode code = BytecodeLoader.makeCode(name + "$py", Files.readAllBytes(cached), filename);
+				Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+				return code;
+			}
+			catch (IOException | RuntimeException e) {
+				logger.warn(String.format("Cannot load the cached bytecode of %s, compiling it again", filename), e);
+			}
+		}
+		byte[] bytecode = imp.compileSource(name, new ByteArrayInputStream(source), filename);
+		try {
+			// write to a temporary file and move it into place, so concurrent writers never leave a partial file
+			Files.createDirectories(this.directory);
+			Path temp = Files.createTempFile(this.directory, "bytecode", ".tmp");
+			Files.write(temp, bytecode);
+			Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			evict();
+		}
+		catch (IOException e) {
+			logger.warn(String.format("Cannot cache the bytecode of %s in %s", filename, this.directory), e);
+		}
+		return BytecodeLoader.makeCode(name + "$py", bytecode, filename);
+	}
+
+	/**
+	 * Import modules from source files in directories through the cache. Does nothing if already installed.
+	 * @param systemState the system state whose {@code sys.path_hooks} the cache is added to.
+	 */
+	public void install(PySystemState systemState) {
+		synchronized (this.systemStates) {
+			synchronized (systemState) {
+				if (!systemState.path_hooks.__contains__(this.pathHook)) {
+					systemState.path_hooks.insert(0, this.pathHook);
+					// forget the importers already chosen for the entries on the path
+					systemState.path_importer_cache.invoke("clear");
+				}
+			}
+			this.systemStates.add(systemState);
+		}
+	}
+
+	/**
+	 * Stop importing modules through the cache in every system state it was installed in. Modules already imported
+	 * stay in {@code sys.modules}.
+	 */
+	public void uninstall() {
+		synchronized (this.systemStates) {
+			for (PySystemState systemState : this.systemStates) {
+				synchronized (systemState) {
+					if (systemState.path_hooks.__contains__(this.pathHook)) {
+						systemState.path_hooks.invoke("remove", this.pathHook);
+					}
+					// drop the importers the hook created
+					systemState.path_importer_cache.invoke("clear");
+				}
+			}
+			this.systemStates.clear();
+		}
+	}
+
+	/*
+	 * Deletes the least recently used entries beyond the maximum. Another instance may be evicting at the same time,
+	 * so entries that are already gone are skipped.
+	 */
+	private void evict() throws IOException {
+		List<Path> entries;
+		try (Stream<Path> files = Files.list(this.directory)) {
+			entries = files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+				.collect(Collectors.toList());
+		}
+		if (entries.size() <= this.maxEntries) {
+			return;
+		}
+		entries.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+		for (Path entry : entries.subList(0, entries.size() - this.maxEntries)) {
+			Files.deleteIfExists(entry);
+		}
+	}
+
+	/*
+	 * The file name is passed to the compiled code when it is loaded, so it is not part of the key, and a clone in a
+	 * new temporary directory still finds its bytecode. The module name is, as it names the compiled class.
+	 */
+	private static String key(String name, byte[] source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Integer.toString(imp.getAPIVersion()).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(name.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(source);
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A {@code sys.path_hooks} entry that returns a {@link DirectoryImporter} for each directory on the path.
+	 */
+	private class PathHook extends PyObject {
+
+		@Override
+		public PyObject __call__(PyObject entry) {
+			File directory = new File(entry.toString().isEmpty() ? "." : entry.toString());
+			if (!(entry instanceof PyString) || !directory.isDirectory()) {
+				throw Py.ImportError("Not a directory: " + entry);
+			}
+			return Py.java2py(new DirectoryImporter(directory));
+		}
+	}
+
+	/**
+	 * A PEP 302 finder and loader for the modules and packages in a directory, called by Jython for each directory on
+	 * {@code sys.path} or on the {@code __path__} of a package. Modules it does not find, such as compiled modules
+	 * without a source, are imported as usual.
+	 */
+	public class DirectoryImporter {
+
+		private final File directory;
+
+		DirectoryImporter(File directory) {
+			this.directory = directory;
+		}
+
+		public Object find_module(String fullName) {
+			return locate(fullName) == null ? null : this;
+		}
+
+		public Object find_module(String fullName, PyObject path) {
+			return find_module(fullName);
+		}
+
+		public PyObject load_module(String fullName) {
+			PyObject loaded = Py.getSystemState().modules.__finditem__(fullName);
+			if (loaded != null) {
+				return loaded;
+			}
+			File file = locate(fullName);
+			if (file == null) {
+				throw Py.ImportError("No module named " + fullName);
+			}
+			byte[] source;
+			try {
+				source = Files.readAllBytes(file.toPath());
+			}
+			catch (IOException e) {
+				throw Py.ImportError(String.format("Cannot read %s: %s", file, e.getMessage()));
+			}
+			PyModule module = imp.addModule(fullName);
+			module.__setattr__("__loader__", Py.java2py(this));
+			if (file.getName().equals("__init__.py")) {
+				module.__setattr__("__path__", new PyList(new PyObject[] { new PyString(file.getParent()) }));
+			}
+			return imp.createFromCode(fullName, compile(fullName, source, file.getPath()), file.getPath());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("<bytecode cache importer for %s>", this.directory);
+		}
+
+		/*
+		 * Returns the source file of the module, or the __init__.py of the package.
+		 */
+		private File locate(String fullName) {
+			String name = fullName.substring(fullName.lastIndexOf('.') + 1);
+			File init = new File(new File(this.directory, name), "__init__.py");
+			if (init.isFile()) {
+				return init;
+			}
+			File module = new File(this.directory, name + ".py");
+			return module.isFile() ? module : null;
+		}
+	}
+}
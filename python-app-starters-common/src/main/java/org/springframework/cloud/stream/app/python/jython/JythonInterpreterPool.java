@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.python.util.PythonInterpreter;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A bounded pool of {@link PythonInterpreter}s. Interpreters are created on demand, up to the pool size, and each one
+ * is used by a single thread at a time. Closing the pool closes the idle interpreters, and those in use when they are
+ * returned.
+ **/
+public class JythonInterpreterPool implements AutoCloseable {
+
+	/**
+	 * What to do when every interpreter in the pool is in use.
+	 */
+	public enum ExhaustedPolicy {
+		/**
+		 * Wait for an interpreter to be returned to the pool.
+		 */
+		BLOCK,
+		/**
+		 * Fail with a {@link RejectedExecutionException}.
+		 */
+		REJECT,
+		/**
+		 * Wait up to the maximum wait, if positive, for an interpreter to be returned to the pool, then run on a new
+		 * interpreter that is discarded afterwards. Creating an interpreter takes far longer than running a script, so
+		 * this only suits rare bursts.
+		 */
+		CALLER_RUNS
+	}
+
+	private final static Log logger = LogFactory.getLog(JythonInterpreterPool.class);
+
+	/*
+	 * Bounded by the pool size, so returning an interpreter does not allocate a queue node.
+	 */
+	private final BlockingQueue<PythonInterpreter> interpreters;
+
+	private final AtomicInteger created = new AtomicInteger();
+
+	private final int size;
+
+	private final ExhaustedPolicy exhaustedPolicy;
+
+	private final long maxWait;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param size the maximum number of pooled interpreters.
+	 * @param exhaustedPolicy the policy to apply when all interpreters are in use.
+	 * @param maxWait maximum time in milliseconds to wait for an interpreter when the policy is
+	 * {@link ExhaustedPolicy#BLOCK}, where a negative value waits indefinitely, or {@link ExhaustedPolicy#CALLER_RUNS},
+	 * where a value that is not positive does not wait.
+	 */
+	public JythonInterpreterPool(int size, ExhaustedPolicy exhaustedPolicy, long maxWait) {
+		Assert.isTrue(size > 0, "'size' must be greater than 0");
+		Assert.notNull(exhaustedPolicy, "'exhaustedPolicy' cannot be null");
+		this.size = size;
+		this.exhaustedPolicy = exhaustedPolicy;
+		this.maxWait = maxWait;
+		this.interpreters = new ArrayBlockingQueue<>(size);
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Run the callback on an interpreter borrowed from the pool.
+	 * @param callback the callback.
+	 * @param <T> the result type.
+	 * @return the result of the callback.
+	 */
+	public <T> T execute(Function<PythonInterpreter, T> callback) {
+		Assert.state(!this.closed, "The interpreter pool is closed");
+		PythonInterpreter interpreter = borrow();
+		if (interpreter == null) {
+			interpreter = createInterpreter();
+			try {
+				return callback.apply(interpreter);
+			}
+			finally {
+				interpreter.close();
+			}
+		}
+		try {
+			return callback.apply(interpreter);
+		}
+		finally {
+			this.interpreters.offer(interpreter);
+			// an interpreter returned while the pool is being closed is closed too
+			if (this.closed) {
+				closeIdle();
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		closeIdle();
+	}
+
+	protected PythonInterpreter createInterpreter() {
+		PythonInterpreter interpreter = new PythonInterpreter();
+		SpringJson.install(interpreter.getSystemState());
+		return interpreter;
+	}
+
+	/*
+	 * Returns null if the caller should run on a transient interpreter.
+	 */
+	private PythonInterpreter borrow() {
+		PythonInterpreter interpreter = this.interpreters.poll();
+		if (interpreter != null) {
+			return interpreter;
+		}
+		if (this.created.getAndIncrement() < this.size) {
+			logger.debug(String.format("Creating Jython interpreter %d of %d", this.created.get(), this.size));
+			try {
+				return createInterpreter();
+			}
+			catch (RuntimeException | Error e) {
+				this.created.decrementAndGet();
+				throw e;
+			}
+		}
+		this.created.decrementAndGet();
+
+		switch (this.exhaustedPolicy) {
+		case REJECT:
+			throw new RejectedExecutionException(
+				String.format("All %d Jython interpreters are in use", this.size));
+		case CALLER_RUNS:
+			if (this.maxWait <= 0) {
+				return null;
+			}
+			try {
+				return this.interpreters.poll(this.maxWait, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted waiting for a Jython interpreter", e);
+			}
+		default:
+			try {
+				interpreter = this.maxWait < 0 ? this.interpreters.take() :
+					this.interpreters.poll(this.maxWait, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted waiting for a Jython interpreter", e);
+			}
+			if (interpreter == null) {
+				throw new RejectedExecutionException(
+					String.format("Timed out after %d ms waiting for a Jython interpreter", this.maxWait));
+			}
+			return interpreter;
+		}
+	}
+
+	private void closeIdle() {
+		PythonInterpreter interpreter;
+		while ((interpreter = this.interpreters.poll()) != null) {
+			interpreter.close();
+		}
+	}
+}
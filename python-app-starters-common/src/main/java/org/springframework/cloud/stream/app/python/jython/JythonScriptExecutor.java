@@ -16,112 +16,369 @@
 
 package org.springframework.cloud.stream.app.python.jython;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.springframework.beans.factory.InitializingBean;
+import org.python.core.Py;
+import org.python.core.PyCode;
+import org.python.core.PyDictProxy;
+import org.python.core.PyDictionary;
+import org.python.core.PyObject;
+import org.python.core.PyStringMap;
+import org.python.core.PyTuple;
+import org.python.util.PythonInterpreter;
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics.Phase;
 import org.springframework.core.io.Resource;
-import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
 import org.springframework.integration.scripting.ScriptVariableGenerator;
 import org.springframework.integration.scripting.jsr223.PythonScriptExecutor;
-import org.springframework.messaging.Message;
-import org.springframework.scripting.ScriptSource;
-import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.StringUtils;
 
-import java.io.IOException;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
- * A Jython script executor.
+ * A Jython script executor. The script is compiled once and the compiled code is run for every message on an
+ * interpreter borrowed from a {@link JythonInterpreterPool}. The script is only recompiled by {@link #refresh()} if
+ * its source has changed.
+ * <p>
+ * The {@link #getStaticVariables() static variables} are converted to Python objects once and shared, so maps and
+ * lists become read-only dict proxies and tuples. Each interpreter keeps a namespace for the script that is reused for
+ * every message: the payload, headers and any additional variables are bound into it before the script runs, and
+ * afterwards it is cleared and the static variables are bound again, so names assigned by the script on one message
+ * are not visible on the next. If a function is called, the namespace the script defined it in is kept, like the
+ * globals of a module. If the variable generator only binds the payload and headers, they are bound without building a
+ * map of variables for each message. The headers are not bound at all if the script, or the function, does not read
+ * them.
+ * <p>
+ * In {@link #setBinary(boolean) binary mode}, a byte array payload is bound as a read-only memoryview over the array
+ * and a result that is a buffer, such as a bytearray or a memoryview, is returned as a byte array, sharing its storage
+ * where possible; a str is returned as its bytes.
+ * <p>
+ * If a {@link #setFunction(String) function} is set, the script is run only once per interpreter to define it, and the
+ * function is then called with the payload and headers for every message.
+ * <p>
+ * If a {@link JythonBytecodeCache} is given, the script and the modules it imports from directories are compiled
+ * through it, so a restart with unchanged sources does not compile them again.
  *
  * @author David Turanski
  **/
-public class JythonScriptExecutor implements InitializingBean {
-	private final static Log logger = LogFactory.getLog(JythonScriptExecutor.class);
-	private final ScriptVariableGenerator variableGenerator;
-	private SimpleStringScriptSource script;
-	private final PythonScriptExecutor scriptExecutor;
-	private final Map<String, Object> staticVariables = new HashMap<>();
+public class JythonScriptExecutor extends AbstractPythonScriptExecutor {
+	private final JythonInterpreterPool interpreterPool;
+	private final JythonBytecodeCache bytecodeCache;
+	private volatile CompiledScript script;
+	private volatile StaticScope staticScope;
 
 	public JythonScriptExecutor(Resource resource) {
 		this(resource, null);
 	}
 
 	public JythonScriptExecutor(Resource resource, ScriptVariableGenerator variableGenerator) {
+		this(resource, variableGenerator, new JythonInterpreterPool(Runtime.getRuntime().availableProcessors(),
+			JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+	}
 
-		ScriptSource scriptSource = new ResourceScriptSource(resource);
-		String scriptPath = null;
-		try {
-			scriptPath = resource.getFile().getAbsolutePath();
-			logger.debug( String.format("Loading script %s", scriptPath) );
-			this.script = new SimpleStringScriptSource(scriptSource.getScriptAsString());
-		}
-		catch (IOException e) {
-			String errorMessage = String.format("Cannot access script %s", scriptPath);
-			logger.error(errorMessage);
-			throw new IllegalArgumentException(errorMessage);
-		}
+	public JythonScriptExecutor(Resource resource, ScriptVariableGenerator variableGenerator,
+		JythonInterpreterPool interpreterPool) {
+		this(resource, variableGenerator, interpreterPool, null);
+	}
 
-		this.scriptExecutor = new PythonScriptExecutor();
+	public JythonScriptExecutor(Resource resource, ScriptVariableGenerator variableGenerator,
+		JythonInterpreterPool interpreterPool, JythonBytecodeCache bytecodeCache) {
+		super(resource, variableGenerator);
+		this.interpreterPool = interpreterPool;
+		this.bytecodeCache = bytecodeCache;
+		this.staticScope = new StaticScope(getStaticVariables());
 
-		this.variableGenerator = variableGenerator == null ? new DefaultScriptVariableGenerator() : variableGenerator;
+		logger.debug(String.format("Loading script %s", getScriptPath()));
+		load(readScript());
+	}
 
-		bindStaticVariables(this.staticVariables);
+	@Override
+	public String getEngine() {
+		return "jython";
 	}
 
+	@Override
+	public String getScript() {
+		return this.script.getSource();
+	}
 
-	public Object execute(Message<?> message) {
-		return this.execute(message, null);
+	@Override
+	public int getPoolSize() {
+		return this.interpreterPool.getSize();
 	}
 
-	/**
-	 *
-	 * @param message the message.
-	 * @param additionalVariables additional bind variables.
-	 * @return the result.
+	@Override
+	public void resetNamespaces() {
+		this.script.resetNamespaces();
+	}
+
+	@Override
+	protected Object execute(Map<String, Object> variables, String payloadVariable, ScriptMetrics metrics,
+		long start) {
+		CompiledScript script = this.script;
+		StaticScope staticScope = this.staticScope;
+		String function = getFunction();
+		boolean binary = isBinary();
+		return this.interpreterPool.execute(interpreter -> script.execute(interpreter, staticScope, function, binary,
+			variables, payloadVariable, metrics, start));
+	}
+
+	@Override
+	protected Object execute(Object payload, MessageHeaders headers, Map<String, Object> additionalVariables,
+		ScriptMetrics metrics, long start) {
+		CompiledScript script = this.script;
+		StaticScope staticScope = this.staticScope;
+		String function = getFunction();
+		boolean binary = isBinary();
+		return this.interpreterPool.execute(interpreter -> script.execute(interpreter, staticScope, function, binary,
+			payload, headers, additionalVariables, metrics, start));
+	}
+
+	@Override
+	protected void staticVariablesChanged() {
+		this.staticScope = new StaticScope(getStaticVariables());
+	}
+
+	@Override
+	public void destroy() {
+		this.interpreterPool.close();
+		if (this.bytecodeCache != null) {
+			this.bytecodeCache.uninstall();
+		}
+	}
+
+	@Override
+	protected void compile(String source) {
+		PyCode code = this.interpreterPool.execute(interpreter -> {
+			if (this.bytecodeCache == null) {
+				return interpreter.compile(source, getScriptPath());
+			}
+			this.bytecodeCache.install(interpreter.getSystemState());
+			return this.bytecodeCache.compile(moduleName(), source.getBytes(StandardCharsets.UTF_8), getScriptPath());
+		});
+		this.script = new CompiledScript(getScriptPath(), source, code,
+			PythonScriptExecutor.PythonVariableParser.parseReturnVariable(source),
+			HeadersUsage.of(source, getScriptPath()));
+	}
+
+	/*
+	 * Maps and lists become read-only dict proxies and tuples rather than wrapped Java objects, as the static values
+	 * are shared by every interpreter and message.
 	 */
-	public Object execute(Message<?> message, Map<String, Object> additionalVariables) {
-		Map<String, Object> variables = variableGenerator.generateScriptVariables(message);
-		variables.putAll(this.staticVariables);
-		if (additionalVariables != null) {
-			variables.putAll(additionalVariables);
+	private static PyObject toPython(Object value) {
+		if (value instanceof Map) {
+			PyDictionary dictionary = new PyDictionary();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				dictionary.__setitem__(toPython(entry.getKey()), toPython(entry.getValue()));
+			}
+			return new PyDictProxy(dictionary);
+		}
+		if (value instanceof Collection) {
+			List<PyObject> items = new ArrayList<>();
+			for (Object item : (Collection<?>) value) {
+				items.add(toPython(item));
+			}
+			return new PyTuple(items.toArray(new PyObject[0]));
 		}
-		return this.scriptExecutor.executeScript(this.script, variables);
+		return Py.java2py(value);
 	}
 
-	public String getScript() {
-		return this.script.getScriptAsString();
+	private static Object toJava(PyObject result, boolean binary) {
+		return binary ? BinaryValues.toJava(result) : result.__tojava__(Object.class);
 	}
 
-	protected void bindStaticVariables(Map<String, Object> variables) {
+	/*
+	 * The file name of the script without its extension, as a valid module name.
+	 */
+	private String moduleName() {
+		String name = StringUtils.stripFilenameExtension(StringUtils.getFilename(getScriptPath()));
+		return name.replaceAll("\\W", "_");
 	}
 
-	@Override
-	public void afterPropertiesSet() throws Exception {
-		bindStaticVariables(this.staticVariables);
+	/**
+	 * The static variables, converted to Python objects once and shared by every interpreter, so maps and lists are
+	 * read-only.
+	 */
+	static class StaticScope {
+
+		private final String[] names;
+
+		private final PyObject[] values;
+
+		StaticScope(Map<String, Object> variables) {
+			this.names = new String[variables.size()];
+			this.values = new PyObject[variables.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> variable : variables.entrySet()) {
+				this.names[i] = variable.getKey();
+				this.values[i++] = toPython(variable.getValue());
+			}
+		}
+
+		void bind(PyStringMap namespace) {
+			for (int i = 0; i < this.names.length; i++) {
+				namespace.__setitem__(this.names[i], this.values[i]);
+			}
+		}
 	}
 
-	static class SimpleStringScriptSource implements ScriptSource {
+	/**
+	 * The script source together with its compiled code and the name of the variable holding the result.
+	 */
+	static class CompiledScript {
+
+		private final String path;
+
+		private final String source;
 
-		private final String script;
+		private final PyCode code;
 
-		SimpleStringScriptSource(String script) {
-			this.script = script;
+		private final String returnVariable;
+
+		private final HeadersUsage headersUsage;
+
+		/*
+		 * The namespace of this script on each interpreter, reused for every message.
+		 */
+		private final Map<PythonInterpreter, Namespace> namespaces = Collections.synchronizedMap(new WeakHashMap<>());
+
+		CompiledScript(String path, String source, PyCode code, String returnVariable, HeadersUsage headersUsage) {
+			this.path = path;
+			this.source = source;
+			this.code = code;
+			this.headersUsage = headersUsage;
+			this.returnVariable = returnVariable;
 		}
 
-		@Override
-		public String getScriptAsString() {
-			return script;
+		String getSource() {
+			return this.source;
 		}
 
-		@Override
-		public boolean isModified() {
-			return false;
+		void resetNamespaces() {
+			this.namespaces.clear();
+		}
+
+		Object execute(PythonInterpreter interpreter, StaticScope staticScope, String function, boolean binary,
+			Map<String, Object> variables, String payloadVariable, ScriptMetrics metrics, long start) {
+			Namespace namespace = namespace(interpreter, staticScope, function);
+			boolean bindHeaders = this.headersUsage.isUsedBy(null);
+			for (Map.Entry<String, Object> variable : variables.entrySet()) {
+				if (binary && variable.getKey().equals(payloadVariable)) {
+					namespace.scope.__setitem__(payloadVariable, BinaryValues.toPython(variable.getValue()));
+				}
+				else if (bindHeaders || !variable.getKey().equals("headers")) {
+					namespace.scope.__setitem__(variable.getKey(), Py.java2py(variable.getValue()));
+				}
+			}
+			PyObject headers = !this.headersUsage.isUsedBy(function) ? Py.None :
+				bindHeaders ? namespace.scope.__finditem__("headers") : Py.java2py(variables.get("headers"));
+			return run(interpreter, namespace, function, binary, namespace.scope.__finditem__(payloadVariable),
+				headers, metrics, start);
+		}
+
+		Object execute(PythonInterpreter interpreter, StaticScope staticScope, String function, boolean binary,
+			Object payload, MessageHeaders headers, Map<String, Object> additionalVariables,
+			ScriptMetrics metrics, long start) {
+			Namespace namespace = namespace(interpreter, staticScope, function);
+			PyObject pyPayload = binary ? BinaryValues.toPython(payload) : Py.java2py(payload);
+			PyObject pyHeaders = this.headersUsage.isUsedBy(function) ? Py.java2py(headers) : Py.None;
+			namespace.scope.__setitem__("payload", pyPayload);
+			if (this.headersUsage.isUsedBy(null)) {
+				namespace.scope.__setitem__("headers", pyHeaders);
+			}
+			if (additionalVariables != null) {
+				for (Map.Entry<String, Object> variable : additionalVariables.entrySet()) {
+					namespace.scope.__setitem__(variable.getKey(), Py.java2py(variable.getValue()));
+				}
+			}
+			return run(interpreter, namespace, function, binary, pyPayload, pyHeaders, metrics, start);
+		}
+
+		/*
+		 * Returns the namespace of the interpreter, created again if the static variables have changed. When the
+		 * whole script runs for the message, the result variable is reset first.
+		 */
+		private Namespace namespace(PythonInterpreter interpreter, StaticScope staticScope, String function) {
+			Namespace namespace = this.namespaces.get(interpreter);
+			if (namespace == null || namespace.staticScope != staticScope) {
+				namespace = new Namespace(staticScope);
+				this.namespaces.put(interpreter, namespace);
+			}
+			if (function == null && this.returnVariable != null) {
+				namespace.scope.__setitem__(this.returnVariable, Py.None);
+			}
+			return namespace;
+		}
+
+		private Object run(PythonInterpreter interpreter, Namespace namespace, String functionName, boolean binary,
+			PyObject payload, PyObject headers, ScriptMetrics metrics, long start) {
+			if (functionName == null) {
+				try {
+					start = metrics.record(Phase.BIND, start);
+					interpreter.setLocals(namespace.scope);
+					interpreter.exec(this.code);
+					start = metrics.record(Phase.EXECUTE, start);
+					PyObject result = this.returnVariable == null ? null :
+						namespace.scope.__finditem__(this.returnVariable);
+					Object converted = result == null ? null : toJava(result, binary);
+					metrics.record(Phase.CONVERT, start);
+					return converted;
+				}
+				finally {
+					namespace.reset();
+				}
+			}
+			if (!namespace.defined) {
+				interpreter.setLocals(namespace.scope);
+				interpreter.exec(this.code);
+				namespace.defined = true;
+			}
+			PyObject function = namespace.scope.__finditem__(functionName);
+			if (function == null || !function.isCallable()) {
+				throw new IllegalStateException(
+					String.format("Script %s does not define a function '%s'", this.path, functionName));
+			}
+			start = metrics.record(Phase.BIND, start);
+			PyObject result = function.__call__(payload == null ? Py.None : payload, headers == null ? Py.None :
+				headers);
+			start = metrics.record(Phase.EXECUTE, start);
+			Object converted = toJava(result, binary);
+			metrics.record(Phase.CONVERT, start);
+			return converted;
+		}
+	}
+
+	/**
+	 * The namespace of a script on an interpreter, and the static scope it was created from.
+	 */
+	private static class Namespace {
+
+		private final StaticScope staticScope;
+
+		private final PyStringMap scope = new PyStringMap();
+
+		/*
+		 * Whether the script has run in this namespace to define the function.
+		 */
+		private boolean defined;
+
+		Namespace(StaticScope staticScope) {
+			this.staticScope = staticScope;
+			staticScope.bind(this.scope);
 		}
 
-		@Override
-		public String suggestedClassName() {
-			return SimpleStringScriptSource.class.getName();
+		/*
+		 * Drops the names bound for, or assigned by, the last run, keeping the capacity of the map.
+		 */
+		void reset() {
+			this.scope.clear();
+			this.staticScope.bind(this.scope);
 		}
 	}
 }
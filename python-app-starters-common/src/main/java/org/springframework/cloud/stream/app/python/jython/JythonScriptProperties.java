@@ -18,6 +18,11 @@ package org.springframework.cloud.stream.app.python.jython;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.stream.app.python.script.ScriptProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.expression.Expression;
+
+import java.io.File;
+import java.util.Map;
 
 /**
  * Configuration properties for the Jython wrapper.
@@ -47,8 +52,20 @@ public class JythonScriptProperties extends ScriptProperties {
 		}
 	}
 
+	public static enum Engine {
+		/**
+		 * Run the script on Jython, in the JVM.
+		 */
+		JYTHON,
+		/**
+		 * Run the script on CPython, in a pool of worker processes.
+		 */
+		CPYTHON
+	}
+
 	/**
-	 * Variable bindings as a delimited string of name-value pairs, e.g. 'foo=bar,baz=car'.
+	 * Variable bindings as a delimited string of name-value pairs, e.g. 'foo=bar,baz=car'. A name may be followed by
+	 * a type, one of str, int, float, bool or json, to bind a converted value, e.g. 'positive:float=0.6'.
 	 */
 	private String variables;
 
@@ -57,6 +74,100 @@ public class JythonScriptProperties extends ScriptProperties {
 	 */
 	private Delimiter delimiter = Delimiter.COMMA;
 
+	/**
+	 * Variable bindings as a map, whose values keep the types they are configured with, e.g. numbers, lists or maps in
+	 * YAML. Take precedence over 'variables'.
+	 */
+	private Map<String, Object> variableMap;
+
+	/**
+	 * The engine that runs the script. CPYTHON supports C extensions such as numpy but requires a Python 3
+	 * installation.
+	 */
+	private Engine engine = Engine.JYTHON;
+
+	/**
+	 * The command that runs CPython, if the engine is CPYTHON.
+	 */
+	private String pythonCommand = "python3";
+
+	/**
+	 * Size (in bytes) of the shared memory region for each direction, per CPython worker. Values of at least
+	 * 'shared-memory-threshold' bytes are passed through it instead of the pipes. Default 0, no shared memory.
+	 */
+	private int sharedMemorySize;
+
+	/**
+	 * Minimum size (in bytes) of a value to pass to or from a CPython worker through shared memory.
+	 */
+	private int sharedMemoryThreshold = 65536;
+
+	/**
+	 * Maximum time (in milliseconds) a CPython worker may take to respond to a request, or to compile the script,
+	 * before it is stopped and replaced. 0 waits indefinitely.
+	 */
+	private long workerTimeout = 60000;
+
+	/**
+	 * The maximum number of Jython interpreters, or CPython worker processes, used to execute the script concurrently.
+	 */
+	private int poolSize = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The action to take when all interpreters or workers are in use.
+	 */
+	private JythonInterpreterPool.ExhaustedPolicy poolExhaustedPolicy = JythonInterpreterPool.ExhaustedPolicy.BLOCK;
+
+	/**
+	 * Maximum time (in milliseconds) to wait for an interpreter or worker if the exhausted policy is BLOCK, where a
+	 * negative value waits indefinitely, or for an interpreter before creating a transient one if it is CALLER_RUNS.
+	 */
+	private long poolMaxWait = -1;
+
+	/**
+	 * The maximum number of messages passed to the script in one call. If greater than 1, the script is bound to
+	 * 'payloads' and 'headers' lists and must return a list with one result per message. Batched messages are
+	 * acknowledged as they arrive, before the script runs, so they are delivered at most once; if the script fails,
+	 * each message of the batch is sent to the error channel.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * Maximum time (in milliseconds) to wait for a batch to fill before passing a partial batch to the script.
+	 */
+	private long batchTimeout = 1000;
+
+	/**
+	 * A SpEL expression for the key, such as the partition, by which messages are batched; only messages with the same
+	 * key are passed to the script together. Defaults to the partition the message was received from, if the binder
+	 * sets the 'kafka_receivedPartitionId' header.
+	 */
+	private Expression batchKeyExpression;
+
+	/**
+	 * A directory in which to cache the compiled bytecode of the script and the modules it imports from directories,
+	 * keyed by their content, so a restart with unchanged sources does not compile them again. Only used by the JYTHON
+	 * engine.
+	 */
+	private File bytecodeCacheDir;
+
+	/**
+	 * The maximum number of compiled scripts and modules kept in the bytecode cache directory. The least recently used
+	 * are deleted first.
+	 */
+	private int bytecodeCacheSize = JythonBytecodeCache.DEFAULT_MAX_ENTRIES;
+
+	/**
+	 * The number of times to run the script against the warm-up payloads before consuming messages, on each pooled
+	 * interpreter or worker. Default 0, no warm-up.
+	 */
+	private int warmupIterations;
+
+	/**
+	 * A resource with one sample payload per line for the warm-up, e.g. 'classpath:warmup.txt'.
+	 */
+	private Resource warmupPayloads;
+
 	public String getVariables() {
 		return variables;
 	}
@@ -73,6 +184,134 @@ public class JythonScriptProperties extends ScriptProperties {
 		this.delimiter = delimiter;
 	}
 
+	public Map<String, Object> getVariableMap() {
+		return variableMap;
+	}
+
+	public void setVariableMap(Map<String, Object> variableMap) {
+		this.variableMap = variableMap;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	public String getPythonCommand() {
+		return pythonCommand;
+	}
+
+	public void setPythonCommand(String pythonCommand) {
+		this.pythonCommand = pythonCommand;
+	}
+
+	public int getSharedMemorySize() {
+		return sharedMemorySize;
+	}
+
+	public void setSharedMemorySize(int sharedMemorySize) {
+		this.sharedMemorySize = sharedMemorySize;
+	}
+
+	public int getSharedMemoryThreshold() {
+		return sharedMemoryThreshold;
+	}
+
+	public void setSharedMemoryThreshold(int sharedMemoryThreshold) {
+		this.sharedMemoryThreshold = sharedMemoryThreshold;
+	}
+
+	public long getWorkerTimeout() {
+		return workerTimeout;
+	}
+
+	public void setWorkerTimeout(long workerTimeout) {
+		this.workerTimeout = workerTimeout;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public JythonInterpreterPool.ExhaustedPolicy getPoolExhaustedPolicy() {
+		return poolExhaustedPolicy;
+	}
+
+	public void setPoolExhaustedPolicy(JythonInterpreterPool.ExhaustedPolicy poolExhaustedPolicy) {
+		this.poolExhaustedPolicy = poolExhaustedPolicy;
+	}
+
+	public long getPoolMaxWait() {
+		return poolMaxWait;
+	}
+
+	public void setPoolMaxWait(long poolMaxWait) {
+		this.poolMaxWait = poolMaxWait;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	public void setBatchTimeout(long batchTimeout) {
+		this.batchTimeout = batchTimeout;
+	}
+
+	public Expression getBatchKeyExpression() {
+		return batchKeyExpression;
+	}
+
+	public void setBatchKeyExpression(Expression batchKeyExpression) {
+		this.batchKeyExpression = batchKeyExpression;
+	}
+
+	public File getBytecodeCacheDir() {
+		return bytecodeCacheDir;
+	}
+
+	public void setBytecodeCacheDir(File bytecodeCacheDir) {
+		this.bytecodeCacheDir = bytecodeCacheDir;
+	}
+
+	public int getBytecodeCacheSize() {
+		return bytecodeCacheSize;
+	}
+
+	public void setBytecodeCacheSize(int bytecodeCacheSize) {
+		this.bytecodeCacheSize = bytecodeCacheSize;
+	}
+
+	public int getWarmupIterations() {
+		return warmupIterations;
+	}
+
+	public void setWarmupIterations(int warmupIterations) {
+		this.warmupIterations = warmupIterations;
+	}
+
+	public Resource getWarmupPayloads() {
+		return warmupPayloads;
+	}
+
+	public void setWarmupPayloads(Resource warmupPayloads) {
+		this.warmupPayloads = warmupPayloads;
+	}
+
 	public String getScript() {
 		return super.getScript();
 	}
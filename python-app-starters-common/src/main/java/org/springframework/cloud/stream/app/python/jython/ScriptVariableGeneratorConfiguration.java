@@ -16,37 +16,24 @@
 
 package org.springframework.cloud.stream.app.python.jython;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.app.python.script.ScriptVariableUtils;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
 import org.springframework.integration.scripting.ScriptVariableGenerator;
-import org.springframework.util.StringUtils;
-
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
+ * The variables configured with 'variables' and 'variable-map' are bound once by the script executor, see
+ * {@link ScriptVariableUtils}, so the generator only binds the payload and headers of each message.
+ *
  * @author David Turanski
  **/
 
 @Configuration
 public class ScriptVariableGeneratorConfiguration {
 
-	@Autowired JythonScriptProperties properties;
-
 	@Bean(name = "variableGenerator")
-	public ScriptVariableGenerator scriptVariableGenerator() throws IOException {
-		Map<String, Object> variables = new HashMap<>();
-		if (properties.getVariables() != null) {
-			String[] props = StringUtils.delimitedListToStringArray(properties.getVariables(),
-					String.valueOf(properties.getDelimiter().value()));
-			for (String prop : props) {
-				String[] toks = StringUtils.split(prop, "=");
-				variables.put(toks[0].trim(), toks[1].trim());
-			}
-		}
-		return new DefaultScriptVariableGenerator(variables);
+	public ScriptVariableGenerator scriptVariableGenerator() {
+		return new DefaultScriptVariableGenerator();
 	}
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.python.core.BufferProtocol;
+import org.python.core.Py;
+import org.python.core.PyBUF;
+import org.python.core.PyBoolean;
+import org.python.core.PyBuffer;
+import org.python.core.PyBuiltinFunctionNarrow;
+import org.python.core.PyDictionary;
+import org.python.core.PyFloat;
+import org.python.core.PyInteger;
+import org.python.core.PyList;
+import org.python.core.PyLong;
+import org.python.core.PyModule;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.PyStringMap;
+import org.python.core.PySystemState;
+import org.python.core.PyTuple;
+import org.python.core.PyUnicode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The 'springjson' module, a replacement for the parts of Python's 'json' module that scripts use on every message,
+ * backed by Jackson. {@code loads} parses a str, a unicode or any buffer, such as the byte array payload or a
+ * memoryview over it, without first decoding it into a string, and builds the dicts, lists, unicode strings and
+ * numbers that 'json' would return directly from the token stream. {@code dumps} writes dicts, lists, tuples, strings,
+ * numbers, booleans and None, and Java objects such as the headers, in the default format of 'json', with non-ASCII
+ * characters escaped, and returns a str. Unlike 'json', it takes no options.
+ * <p>
+ * Malformed JSON raises ValueError and a value that cannot be serialized raises TypeError, as with 'json'.
+ **/
+public final class SpringJson {
+
+	public static final String MODULE_NAME = "springjson";
+
+	private static final JsonFactory jsonFactory = new JsonFactory()
+		.setCharacterEscapes(new PythonEscapes())
+		.enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+
+	private static final ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+
+	/*
+	 * ', ' between items and ': ' between keys and values, as written by 'json'.
+	 */
+	private static final MinimalPrettyPrinter prettyPrinter = new MinimalPrettyPrinter() {
+
+		@Override
+		public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException {
+			generator.writeRaw(": ");
+		}
+
+		@Override
+		public void writeObjectEntrySeparator(JsonGenerator generator) throws IOException {
+			generator.writeRaw(", ");
+		}
+
+		@Override
+		public void writeArrayValueSeparator(JsonGenerator generator) throws IOException {
+			generator.writeRaw(", ");
+		}
+	};
+
+	private static final PyModule module = createModule();
+
+	private SpringJson() {
+	}
+
+	/**
+	 * Make the module importable by the scripts run with a system state.
+	 * @param systemState the system state.
+	 */
+	static void install(PySystemState systemState) {
+		systemState.modules.__setitem__(MODULE_NAME, module);
+	}
+
+	/**
+	 * @param json a str, a unicode or a buffer holding UTF-8 JSON.
+	 * @return the parsed value.
+	 */
+	public static PyObject loads(PyObject json) {
+		try {
+			if (json instanceof PyUnicode) {
+				return parse(jsonFactory.createParser(json.toString()));
+			}
+			if (json instanceof PyString) {
+				return parse(jsonFactory.createParser(((PyString) json).toBytes()));
+			}
+			if (json instanceof BufferProtocol) {
+				PyBuffer buffer = ((BufferProtocol) json).getBuffer(PyBUF.FULL_RO);
+				try {
+					if (buffer.isContiguous('C')) {
+						ByteBuffer bytes = buffer.getNIOByteBuffer();
+						if (bytes.hasArray()) {
+							return parse(jsonFactory.createParser(bytes.array(), bytes.arrayOffset() + bytes.position(),
+								bytes.remaining()));
+						}
+						return parse(jsonFactory.createParser(new ByteBufferBackedInputStream(bytes)));
+					}
+					byte[] bytes = new byte[buffer.getLen()];
+					buffer.copyTo(bytes, 0);
+					return parse(jsonFactory.createParser(bytes));
+				}
+				finally {
+					buffer.release();
+				}
+			}
+			Object value = json.__tojava__(Object.class);
+			if (value instanceof byte[]) {
+				return parse(jsonFactory.createParser((byte[]) value));
+			}
+		}
+		catch (JsonProcessingException e) {
+			throw Py.ValueError(e.getOriginalMessage());
+		}
+		catch (IOException e) {
+			throw Py.IOError(e);
+		}
+		throw Py.TypeError(String.format("expected string or buffer, got %s", json.getType().fastGetName()));
+	}
+
+	/**
+	 * @param value the value to serialize.
+	 * @return the JSON, as a str.
+	 */
+	public static PyString dumps(PyObject value) {
+		StringWriter json = new StringWriter();
+		try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+			generator.setPrettyPrinter(prettyPrinter);
+			write(generator, value);
+		}
+		catch (IOException e) {
+			throw Py.IOError(e);
+		}
+		return new PyString(json.toString());
+	}
+
+	private static PyObject parse(JsonParser parser) throws IOException {
+		try {
+			if (parser.nextToken() == null) {
+				throw Py.ValueError("No JSON object could be decoded");
+			}
+			PyObject value = value(parser);
+			if (parser.nextToken() != null) {
+				throw Py.ValueError(String.format("Extra data at %s", parser.getCurrentLocation()));
+			}
+			return value;
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	private static PyObject value(JsonParser parser) throws IOException {
+		switch (parser.currentToken()) {
+		case START_OBJECT:
+			PyDictionary object = new PyDictionary();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				PyUnicode key = new PyUnicode(parser.getCurrentName());
+				parser.nextToken();
+				object.__setitem__(key, value(parser));
+			}
+			return object;
+		case START_ARRAY:
+			List<PyObject> items = new ArrayList<>();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				items.add(value(parser));
+			}
+			return new PyList(items);
+		case VALUE_STRING:
+			return new PyUnicode(parser.getText());
+		case VALUE_NUMBER_INT:
+			switch (parser.getNumberType()) {
+			case INT:
+				return Py.newInteger(parser.getIntValue());
+			case LONG:
+				return Py.newLong(parser.getLongValue());
+			default:
+				return Py.newLong(parser.getBigIntegerValue());
+			}
+		case VALUE_NUMBER_FLOAT:
+			return Py.newFloat(parser.getDoubleValue());
+		case VALUE_TRUE:
+			return Py.True;
+		case VALUE_FALSE:
+			return Py.False;
+		case VALUE_NULL:
+			return Py.None;
+		default:
+			throw Py.ValueError(String.format("Unexpected %s at %s", parser.currentToken(),
+				parser.getCurrentLocation()));
+		}
+	}
+
+	private static void write(JsonGenerator generator, PyObject value) throws IOException {
+		if (value == Py.None) {
+			generator.writeNull();
+		}
+		else if (value instanceof PyString) {
+			generator.writeString(string((PyString) value));
+		}
+		else if (value instanceof PyBoolean) {
+			generator.writeBoolean(((PyBoolean) value).getBooleanValue());
+		}
+		else if (value instanceof PyInteger) {
+			generator.writeNumber(((PyInteger) value).getValue());
+		}
+		else if (value instanceof PyLong) {
+			generator.writeNumber(((PyLong) value).getValue());
+		}
+		else if (value instanceof PyFloat) {
+			generator.writeNumber(number((PyFloat) value));
+		}
+		else if (value instanceof PyDictionary || value instanceof PyStringMap) {
+			generator.writeStartObject();
+			for (PyObject key : value.asIterable()) {
+				generator.writeFieldName(key(key));
+				write(generator, value.__getitem__(key));
+			}
+			generator.writeEndObject();
+		}
+		else if (value instanceof PyList || value instanceof PyTuple) {
+			generator.writeStartArray();
+			for (PyObject item : value.asIterable()) {
+				write(generator, item);
+			}
+			generator.writeEndArray();
+		}
+		else {
+			Object javaValue = value.__tojava__(Object.class);
+			if (javaValue == Py.NoConversion || javaValue instanceof PyObject) {
+				throw Py.TypeError(String.format("%s is not JSON serializable", value.__repr__()));
+			}
+			objectMapper.writeValue(generator, javaValue);
+		}
+	}
+
+	/*
+	 * Floats are written as repr() writes them, and infinity and NaN as the names JavaScript gives them.
+	 */
+	private static String number(PyFloat value) {
+		double number = value.getValue();
+		if (Double.isNaN(number)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(number)) {
+			return number > 0 ? "Infinity" : "-Infinity";
+		}
+		return value.__repr__().toString();
+	}
+
+	/*
+	 * Keys that are not strings are converted as 'json' does.
+	 */
+	private static String key(PyObject key) {
+		if (key instanceof PyString) {
+			return string((PyString) key);
+		}
+		if (key == Py.None) {
+			return "null";
+		}
+		if (key instanceof PyBoolean) {
+			return ((PyBoolean) key).getBooleanValue() ? "true" : "false";
+		}
+		if (key instanceof PyInteger || key instanceof PyLong || key instanceof PyFloat) {
+			return key.__str__().toString();
+		}
+		throw Py.TypeError(String.format("key %s is not a string", key.__repr__()));
+	}
+
+	/*
+	 * A str holds bytes, decoded as UTF-8 unless they are all ASCII.
+	 */
+	private static String string(PyString value) {
+		String string = value.getString();
+		if (value instanceof PyUnicode) {
+			return string;
+		}
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) > 0x7f) {
+				return new String(value.toBytes(), StandardCharsets.UTF_8);
+			}
+		}
+		return string;
+	}
+
+	private static PyModule createModule() {
+		PyStringMap dict = new PyStringMap();
+		dict.__setitem__("__doc__", new PyString("JSON encoding and decoding backed by Jackson"));
+		dict.__setitem__("loads", new PyBuiltinFunctionNarrow("loads", 1, 1, "loads(s) -> object") {
+
+			@Override
+			public PyObject __call__(PyObject json) {
+				return loads(json);
+			}
+		});
+		dict.__setitem__("dumps", new PyBuiltinFunctionNarrow("dumps", 1, 1, "dumps(obj) -> str") {
+
+			@Override
+			public PyObject __call__(PyObject value) {
+				return dumps(value);
+			}
+		});
+		return new PyModule(MODULE_NAME, dict);
+	}
+
+	/**
+	 * Escapes the characters 'json' escapes by default, in the same way: control characters without a short escape,
+	 * DEL and every non-ASCII character as a unicode escape with lower case hex digits.
+	 */
+	private static class PythonEscapes extends CharacterEscapes {
+
+		private final int[] asciiEscapes = standardAsciiEscapesForJSON();
+
+		PythonEscapes() {
+			for (int c = 0; c < 0x20; c++) {
+				if (this.asciiEscapes[c] == ESCAPE_STANDARD) {
+					this.asciiEscapes[c] = ESCAPE_CUSTOM;
+				}
+			}
+			this.asciiEscapes[0x7f] = ESCAPE_CUSTOM;
+		}
+
+		@Override
+		public int[] getEscapeCodesForAscii() {
+			return this.asciiEscapes;
+		}
+
+		@Override
+		public SerializableString getEscapeSequence(int c) {
+			return c < 0x20 || c >= 0x7f ? new SerializedString(String.format("\\u%04x", c)) : null;
+		}
+	}
+}
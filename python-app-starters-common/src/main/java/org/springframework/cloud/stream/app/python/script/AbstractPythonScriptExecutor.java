@@ -0,0 +1,452 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics.Phase;
+import org.springframework.core.io.Resource;
+import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
+import org.springframework.integration.scripting.ScriptVariableGenerator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.scripting.ScriptSource;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for the engines that run a Python script for messages. It binds the script variables, records the
+ * {@link ScriptMetrics} and reloads the script on {@link #refresh()}; subclasses compile and run it.
+ * <p>
+ * If a {@link #setFunction(String) function} is set, the script is expected to define it, and the function is called
+ * with the payload and headers for every message instead of running the whole script.
+ **/
+public abstract class AbstractPythonScriptExecutor implements InitializingBean, DisposableBean {
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final ScriptVariableGenerator variableGenerator;
+
+	/*
+	 * True if the variable generator only binds the payload and headers, so they can be bound without generating
+	 * a map of variables for each message.
+	 */
+	private final boolean bindMessage;
+
+	private final ScriptSource scriptSource;
+
+	private final String scriptPath;
+
+	private final Map<String, Object> staticVariables = new HashMap<>();
+
+	private final Map<List<String>, ScriptMetrics> metrics = new ConcurrentHashMap<>();
+
+	private volatile String function;
+
+	private volatile boolean binary;
+
+	private volatile MeterRegistry meterRegistry;
+
+	/*
+	 * The duration of the compilation at construction, recorded once the meter registry is set.
+	 */
+	private volatile long pendingCompileDuration = -1;
+
+	private static final String[] NO_TAGS = new String[0];
+
+	protected AbstractPythonScriptExecutor(Resource resource, ScriptVariableGenerator variableGenerator) {
+		this.scriptSource = new ResourceScriptSource(resource);
+		String scriptPath = null;
+		try {
+			scriptPath = resource.getFile().getAbsolutePath();
+		}
+		catch (IOException e) {
+			String errorMessage = String.format("Cannot access script %s", scriptPath);
+			logger.error(errorMessage);
+			throw new IllegalArgumentException(errorMessage);
+		}
+		this.scriptPath = scriptPath;
+		this.variableGenerator = variableGenerator == null ? new DefaultScriptVariableGenerator() : variableGenerator;
+		this.bindMessage = this.variableGenerator.getClass() == DefaultScriptVariableGenerator.class &&
+			this.variableGenerator.generateScriptVariables(null).isEmpty();
+		bindStaticVariables(this.staticVariables);
+	}
+
+	public Object execute(Message<?> message) {
+		return this.execute(message, null);
+	}
+
+	/**
+	 *
+	 * @param message the message.
+	 * @param additionalVariables additional bind variables.
+	 * @return the result.
+	 */
+	public Object execute(Message<?> message, Map<String, Object> additionalVariables) {
+		return execute(message, additionalVariables, NO_TAGS);
+	}
+
+	/**
+	 *
+	 * @param message the message.
+	 * @param additionalVariables additional bind variables.
+	 * @param tags additional metric tags as key/value pairs.
+	 * @return the result.
+	 */
+	public Object execute(Message<?> message, Map<String, Object> additionalVariables, String... tags) {
+		return execute(message, additionalVariables, metrics(tags));
+	}
+
+	Object execute(Message<?> message, Map<String, Object> additionalVariables, ScriptMetrics metrics) {
+		try {
+			long start = metrics.start();
+			metrics.payload(message.getPayload());
+			Object result;
+			if (this.bindMessage) {
+				result = execute(message.getPayload(), message.getHeaders(), additionalVariables, metrics, start);
+			}
+			else {
+				Map<String, Object> variables = variableGenerator.generateScriptVariables(message);
+				start = metrics.record(Phase.VARIABLES, start);
+				if (additionalVariables != null) {
+					variables.putAll(additionalVariables);
+				}
+				start = metrics.record(Phase.MERGE, start);
+				result = execute(variables, "payload", metrics, start);
+			}
+			metrics.result(result);
+			return result;
+		}
+		catch (RuntimeException e) {
+			metrics.error(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Execute the script once for a batch of messages. The script is bound to a 'payloads' list and a 'headers' list
+	 * and must produce a list containing one result per message, in the same order.
+	 * @param messages the messages.
+	 * @param additionalVariables additional bind variables.
+	 * @param tags additional metric tags as key/value pairs.
+	 * @return the results.
+	 */
+	public List<Object> executeBatch(List<Message<?>> messages, Map<String, Object> additionalVariables,
+		String... tags) {
+		return executeBatch(messages, additionalVariables, metrics(tags));
+	}
+
+	List<Object> executeBatch(List<Message<?>> messages, Map<String, Object> additionalVariables,
+		ScriptMetrics metrics) {
+		return executeGroup(messages, "payloads", payloads(messages), true, additionalVariables, metrics);
+	}
+
+	/**
+	 * Execute the script once to combine a batch of messages into a single value, such as the body of a bulk request.
+	 * The script is bound to a 'payloads' list and a 'headers' list, as for a batch, and may produce any result.
+	 * @param messages the messages.
+	 * @param additionalVariables additional bind variables.
+	 * @param tags additional metric tags as key/value pairs.
+	 * @return the result.
+	 */
+	public Object executeBulk(List<Message<?>> messages, Map<String, Object> additionalVariables, String... tags) {
+		return executeGroup(messages, "payloads", payloads(messages), false, additionalVariables, metrics(tags));
+	}
+
+	/**
+	 * Execute the script once to split a single value, such as the body of a bulk response, into a result per message
+	 * of a batch. The script is bound to the value as 'payload' and to the 'headers' list of the messages, and must
+	 * produce a list containing one result per message, in the same order.
+	 * @param payload the value to split.
+	 * @param messages the messages.
+	 * @param additionalVariables additional bind variables.
+	 * @param tags additional metric tags as key/value pairs.
+	 * @return the results.
+	 */
+	public List<Object> executeSplit(Object payload, List<Message<?>> messages, Map<String, Object> additionalVariables,
+		String... tags) {
+		return executeGroup(messages, "payload", payload, true, additionalVariables, metrics(tags));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T executeGroup(List<Message<?>> messages, String payloadVariable, Object payload,
+		boolean resultPerMessage, Map<String, Object> additionalVariables, ScriptMetrics metrics) {
+		Assert.notEmpty(messages, "'messages' must not be empty");
+		try {
+			long start = metrics.start();
+			List<MessageHeaders> headers = new ArrayList<>(messages.size());
+			for (Message<?> message : messages) {
+				headers.add(message.getHeaders());
+			}
+			Map<String, Object> variables = variableGenerator.generateScriptVariables(messages.get(0));
+			start = metrics.record(Phase.VARIABLES, start);
+			variables.remove("payload");
+			if (additionalVariables != null) {
+				variables.putAll(additionalVariables);
+			}
+			variables.put(payloadVariable, payload);
+			variables.put("headers", headers);
+			start = metrics.record(Phase.MERGE, start);
+			metrics.payload(payload);
+
+			Object result = execute(variables, payloadVariable, metrics, start);
+			if (resultPerMessage) {
+				if (!(result instanceof List) || ((List<?>) result).size() != messages.size()) {
+					String actual = result instanceof List ? "a list of " + ((List<?>) result).size()
+						: result != null ? "a " + result.getClass().getName() : "None";
+					throw new IllegalStateException(String.format(
+						"Script %s must return a list with one result for each of %d messages, but returned %s",
+						this.scriptPath, messages.size(), actual));
+				}
+				result = new ArrayList<>((List<?>) result);
+			}
+			metrics.result(result);
+			return (T) result;
+		}
+		catch (RuntimeException e) {
+			metrics.error(e);
+			throw e;
+		}
+	}
+
+	private static List<Object> payloads(List<Message<?>> messages) {
+		List<Object> payloads = new ArrayList<>(messages.size());
+		for (Message<?> message : messages) {
+			payloads.add(message.getPayload());
+		}
+		return payloads;
+	}
+
+	/**
+	 * @return the name of the engine that runs the script, such as 'jython', used to tag the {@link ScriptMetrics}.
+	 */
+	public abstract String getEngine();
+
+	/**
+	 * @return the source of the script currently in use.
+	 */
+	public abstract String getScript();
+
+	/**
+	 * @return the maximum number of interpreters, or worker processes, that run the script concurrently.
+	 */
+	public abstract int getPoolSize();
+
+	/**
+	 * Forget the names the script has assigned on each idle interpreter or worker, such as during a warm-up, so the
+	 * next message starts again from the static variables. If a function is called, the script runs again to define
+	 * it.
+	 */
+	public abstract void resetNamespaces();
+
+	/**
+	 * Set the name of a function defined by the script to call for each message instead of running the whole script.
+	 * @param function the function name.
+	 */
+	public void setFunction(String function) {
+		this.function = StringUtils.hasText(function) ? function : null;
+	}
+
+	public String getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * Set binary mode, in which byte array payloads are bound as read-only buffers over the array instead of being
+	 * converted, and results are returned as byte arrays, without a copy where the engine allows it.
+	 * @param binary whether to run in binary mode.
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	public boolean isBinary() {
+		return this.binary;
+	}
+
+	/**
+	 * Set the variables bound for every message, such as those configured with 'jython.variables'. Engines convert
+	 * them once into Python objects, rather than merging and converting them for each message. Variables bound for a
+	 * message take precedence.
+	 * @param variables the variables.
+	 */
+	public void setStaticVariables(Map<String, Object> variables) {
+		this.staticVariables.clear();
+		this.staticVariables.putAll(variables);
+		bindStaticVariables(this.staticVariables);
+		staticVariablesChanged();
+	}
+
+	/**
+	 * @return the variables bound for every message.
+	 */
+	public Map<String, Object> getStaticVariables() {
+		return Collections.unmodifiableMap(this.staticVariables);
+	}
+
+	/**
+	 * Set the registry for the {@link ScriptMetrics}. No metrics are recorded if not set.
+	 * @param meterRegistry the meter registry.
+	 */
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		this.metrics.clear();
+		long compileDuration = this.pendingCompileDuration;
+		if (meterRegistry != null && compileDuration >= 0) {
+			this.pendingCompileDuration = -1;
+			ScriptMetrics.compiled(meterRegistry, scriptTags(), compileDuration);
+		}
+	}
+
+	/**
+	 * Reload the script and recompile it if the source has changed. Messages in flight continue to use the code
+	 * that was current when they started.
+	 * @return true if the script was recompiled.
+	 */
+	public synchronized boolean refresh() {
+		if (!this.scriptSource.isModified()) {
+			return false;
+		}
+		String source = readScript();
+		if (source.equals(getScript())) {
+			return false;
+		}
+		logger.info(String.format("Recompiling modified script %s", this.scriptPath));
+		load(source);
+		return true;
+	}
+
+	protected String getScriptPath() {
+		return this.scriptPath;
+	}
+
+	/**
+	 * {@link #compile(String) Compile} the script source, timing it as the {@link Phase#COMPILE} phase.
+	 * @param source the script source.
+	 */
+	protected final void load(String source) {
+		long start = System.nanoTime();
+		compile(source);
+		long duration = System.nanoTime() - start;
+		MeterRegistry meterRegistry = this.meterRegistry;
+		if (meterRegistry != null) {
+			ScriptMetrics.compiled(meterRegistry, scriptTags(), duration);
+		}
+		else {
+			this.pendingCompileDuration = duration;
+		}
+	}
+
+	/**
+	 * Compile the script source and swap it in for the next messages. If compilation fails, the current script must
+	 * stay in use.
+	 * @param source the script source.
+	 */
+	protected abstract void compile(String source);
+
+	/**
+	 * Run the script, or call the {@link #getFunction() function}, with the bound variables.
+	 * @param variables the variables for this message; the {@link #getStaticVariables() static variables} are not
+	 * included.
+	 * @param payloadVariable the name of the variable holding the payload, or payloads for a batch.
+	 * @param metrics the metrics for the bind, execute and convert phases.
+	 * @param start the start time of the bind phase.
+	 * @return the result.
+	 */
+	protected abstract Object execute(Map<String, Object> variables, String payloadVariable,
+		ScriptMetrics metrics, long start);
+
+	/**
+	 * Run the script, or call the {@link #getFunction() function}, for a single message, if the variable generator
+	 * only binds the payload and headers. Engines may override this to bind them without a map of variables; by
+	 * default they are put in a map, with the additional variables, and passed to
+	 * {@link #execute(Map, String, ScriptMetrics, long)}.
+	 * @param payload the payload.
+	 * @param headers the headers.
+	 * @param additionalVariables additional variables for this message, or null.
+	 * @param metrics the metrics for the bind, execute and convert phases.
+	 * @param start the start time of the bind phase.
+	 * @return the result.
+	 */
+	protected Object execute(Object payload, MessageHeaders headers, Map<String, Object> additionalVariables,
+		ScriptMetrics metrics, long start) {
+		Map<String, Object> variables = new HashMap<>();
+		variables.put("payload", payload);
+		variables.put("headers", headers);
+		if (additionalVariables != null) {
+			variables.putAll(additionalVariables);
+		}
+		return execute(variables, "payload", metrics, start);
+	}
+
+	protected void bindStaticVariables(Map<String, Object> variables) {
+	}
+
+	/**
+	 * Called when the {@link #getStaticVariables() static variables} have changed, before the next message.
+	 */
+	protected void staticVariablesChanged() {
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		bindStaticVariables(this.staticVariables);
+		staticVariablesChanged();
+	}
+
+	protected String readScript() {
+		try {
+			return this.scriptSource.getScriptAsString();
+		}
+		catch (IOException e) {
+			String errorMessage = String.format("Cannot access script %s", this.scriptPath);
+			logger.error(errorMessage);
+			throw new IllegalArgumentException(errorMessage, e);
+		}
+	}
+
+	private ScriptMetrics metrics(String... tags) {
+		if (this.meterRegistry == null) {
+			return ScriptMetrics.NONE;
+		}
+		List<String> key = Arrays.asList(tags);
+		ScriptMetrics metrics = this.metrics.get(key);
+		if (metrics != null) {
+			return metrics;
+		}
+		return this.metrics.computeIfAbsent(key, k -> new ScriptMetrics(this.meterRegistry,
+			scriptTags().and(tags)));
+	}
+
+	private Tags scriptTags() {
+		return Tags.of("engine", getEngine(), "script", StringUtils.getFilename(this.scriptPath));
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cloud.stream.app.common.resource.repository.JGitResourceRepository;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically refreshes a {@link JGitResourceRepository} on a background thread and, when its HEAD moves, refreshes
+ * the {@link AbstractPythonScriptExecutor script executors} so changed scripts are recompiled and swapped in. Message
+ * processing never waits on a fetch or a compile; a script that fails to compile is logged and the previous version
+ * stays in use.
+ **/
+public class GitScriptRefresher implements SmartLifecycle {
+
+	private final static Log logger = LogFactory.getLog(GitScriptRefresher.class);
+
+	private final JGitResourceRepository repository;
+
+	private final Iterable<AbstractPythonScriptExecutor> executors;
+
+	private final long interval;
+
+	private volatile String head;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param repository the git repository.
+	 * @param executors the executors running scripts from the repository.
+	 * @param interval the interval in seconds between refreshes.
+	 */
+	public GitScriptRefresher(JGitResourceRepository repository, Iterable<AbstractPythonScriptExecutor> executors,
+		long interval) {
+		Assert.notNull(repository, "'repository' cannot be null");
+		Assert.notNull(executors, "'executors' cannot be null");
+		Assert.isTrue(interval > 0, "'interval' must be greater than 0");
+		this.repository = repository;
+		this.executors = executors;
+		this.interval = interval;
+	}
+
+	/**
+	 * Refresh the repository and, if HEAD has changed since the last call, the executors. The first call always
+	 * refreshes the executors, in case the repository moved after they were created.
+	 * @return true if HEAD has changed.
+	 */
+	public boolean refresh() {
+		String head = this.repository.refresh(this.repository.getLabel());
+		String previous = this.head;
+		this.head = head;
+		if (head.equals(previous)) {
+			return false;
+		}
+		if (previous != null) {
+			logger.info(String.format("Repository %s moved from %s to %s", this.repository.getUri(), previous, head));
+		}
+		for (AbstractPythonScriptExecutor executor : this.executors) {
+			try {
+				executor.refresh();
+			}
+			catch (RuntimeException e) {
+				logger.error("Failed to refresh script, keeping the previous version", e);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (this.scheduler != null) {
+			return;
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "git-script-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			}
+			catch (RuntimeException e) {
+				logger.warn("Failed to refresh repository " + this.repository.getUri(), e);
+			}
+		}, this.interval, this.interval, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return this.scheduler != null;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public int getPhase() {
+		return Integer.MAX_VALUE;
+	}
+}
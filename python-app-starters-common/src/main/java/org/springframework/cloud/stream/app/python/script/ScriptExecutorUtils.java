@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.stream.app.python.cpython.CPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.cpython.CPythonWorkerPool;
+import org.springframework.cloud.stream.app.python.jython.JythonBytecodeCache;
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptProperties;
+import org.springframework.http.MediaType;
+import org.springframework.integration.scripting.ScriptVariableGenerator;
+
+/**
+ * Creates the script executor for the configured engine.
+ **/
+public abstract class ScriptExecutorUtils {
+
+	public static AbstractPythonScriptExecutor createScriptExecutor(JythonScriptProperties properties,
+		ScriptVariableGenerator variableGenerator, MeterRegistry meterRegistry) {
+		AbstractPythonScriptExecutor executor;
+		if (properties.getEngine() == JythonScriptProperties.Engine.CPYTHON) {
+			CPythonWorkerPool workerPool = new CPythonWorkerPool(properties.getPythonCommand(),
+				properties.getPoolSize(), properties.getPoolExhaustedPolicy(), properties.getPoolMaxWait());
+			workerPool.setSharedMemory(properties.getSharedMemorySize(), properties.getSharedMemoryThreshold());
+			workerPool.setTimeout(properties.getWorkerTimeout());
+			executor = new CPythonScriptExecutor(properties.getScriptResource(), variableGenerator, workerPool);
+		}
+		else {
+			executor = new JythonScriptExecutor(properties.getScriptResource(), variableGenerator,
+				new JythonInterpreterPool(properties.getPoolSize(), properties.getPoolExhaustedPolicy(),
+					properties.getPoolMaxWait()),
+				properties.getBytecodeCacheDir() == null ? null :
+					new JythonBytecodeCache(properties.getBytecodeCacheDir(), properties.getBytecodeCacheSize()));
+		}
+		executor.setFunction(properties.getFunction());
+		executor.setBinary(isBinary(properties.getContentType()));
+		executor.setStaticVariables(ScriptVariableUtils.staticVariables(properties));
+		executor.setMeterRegistry(meterRegistry);
+		return executor;
+	}
+
+	/**
+	 * @param contentType the content type of the outgoing messages, or null.
+	 * @return whether the script runs in binary mode, which is the case for 'application/octet-stream'.
+	 */
+	public static boolean isBinary(MediaType contentType) {
+		return contentType != null && MediaType.APPLICATION_OCTET_STREAM.includes(contentType);
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for the phases of a script execution, for one script and set of tags. The meters of every engine
+ * have the same names and are tagged with 'engine'.
+ **/
+public class ScriptMetrics {
+
+	/**
+	 * Timer for each {@link Phase} of a script execution, tagged with 'phase'.
+	 */
+	public static final String TIMER = "python.script";
+
+	/**
+	 * Counter of failed script executions, tagged with 'exception'.
+	 */
+	public static final String ERRORS = "python.script.errors";
+
+	/**
+	 * Timer for the {@link Phase#COMPILE compilation} of the script, tagged only with 'script', as it is shared by
+	 * every execution.
+	 */
+	public static final String COMPILE = "python.script.compile";
+
+	/**
+	 * Distribution of the sizes of byte[] payloads, in bytes.
+	 */
+	public static final String PAYLOAD_SIZE = "python.script.payload.size";
+
+	/**
+	 * Distribution of the lengths of String payloads, in characters.
+	 */
+	public static final String PAYLOAD_LENGTH = "python.script.payload.length";
+
+	/**
+	 * Distribution of the number of elements of collection and map payloads, such as the payloads of a batch.
+	 */
+	public static final String PAYLOAD_COUNT = "python.script.payload.count";
+
+	/**
+	 * Distribution of the sizes of byte[] results, in bytes.
+	 */
+	public static final String RESULT_SIZE = "python.script.result.size";
+
+	/**
+	 * Distribution of the lengths of String results, in characters.
+	 */
+	public static final String RESULT_LENGTH = "python.script.result.length";
+
+	/**
+	 * Distribution of the number of elements of collection and map results.
+	 */
+	public static final String RESULT_COUNT = "python.script.result.count";
+
+	/**
+	 * Timer for each run of the script during warm-up, which is not recorded by the other meters.
+	 */
+	public static final String WARMUP = "python.script.warmup";
+
+	public enum Phase {
+		/**
+		 * Compiling the script, recorded by the {@link #COMPILE} timer when the script is loaded or reloaded rather
+		 * than for each execution.
+		 */
+		COMPILE,
+		/**
+		 * Generating the variables with a custom ScriptVariableGenerator.
+		 */
+		VARIABLES,
+		/**
+		 * Merging the additional variables into the generated ones.
+		 */
+		MERGE,
+		/**
+		 * Converting the variables to Python objects.
+		 */
+		BIND,
+		/**
+		 * Running the script or function.
+		 */
+		EXECUTE,
+		/**
+		 * Converting the result to a Java object.
+		 */
+		CONVERT
+	}
+
+	public static final ScriptMetrics NONE = new ScriptMetrics(null, Tags.empty());
+
+	private final MeterRegistry registry;
+
+	private final Tags tags;
+
+	private final Timer[] timers = new Timer[Phase.values().length];
+
+	private final Sizes payloadSizes;
+
+	private final Sizes resultSizes;
+
+	public ScriptMetrics(MeterRegistry registry, Tags tags) {
+		this.registry = registry;
+		this.tags = tags;
+		if (registry == null) {
+			this.payloadSizes = null;
+			this.resultSizes = null;
+			return;
+		}
+		for (Phase phase : Phase.values()) {
+			if (phase != Phase.COMPILE) {
+				this.timers[phase.ordinal()] = Timer.builder(TIMER)
+					.tags(tags)
+					.tag("phase", phase.name().toLowerCase())
+					.register(registry);
+			}
+		}
+		this.payloadSizes = new Sizes(registry, tags, PAYLOAD_SIZE, PAYLOAD_LENGTH, PAYLOAD_COUNT);
+		this.resultSizes = new Sizes(registry, tags, RESULT_SIZE, RESULT_LENGTH, RESULT_COUNT);
+	}
+
+	/**
+	 * Record the compilation of a script.
+	 * @param registry the meter registry.
+	 * @param tags the tags of the script.
+	 * @param duration the duration of the compilation, in nanoseconds.
+	 */
+	public static void compiled(MeterRegistry registry, Tags tags, long duration) {
+		Timer.builder(COMPILE).tags(tags).register(registry).record(duration, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the start time of the first phase.
+	 */
+	public long start() {
+		return this.registry == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Record a phase that began at the given time.
+	 * @param phase the phase.
+	 * @param start the start time of the phase.
+	 * @return the start time of the next phase.
+	 */
+	public long record(Phase phase, long start) {
+		if (this.registry == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		this.timers[phase.ordinal()].record(now - start, TimeUnit.NANOSECONDS);
+		return now;
+	}
+
+	public void payload(Object payload) {
+		if (this.payloadSizes != null) {
+			this.payloadSizes.record(payload);
+		}
+	}
+
+	public void result(Object result) {
+		if (this.resultSizes != null) {
+			this.resultSizes.record(result);
+		}
+	}
+
+	public void error(Throwable throwable) {
+		if (this.registry != null) {
+			this.registry.counter(ERRORS, this.tags.and("exception", throwable.getClass().getSimpleName()))
+				.increment();
+		}
+	}
+
+	/**
+	 * The distributions of the sizes of payloads or results, one per unit.
+	 */
+	private static class Sizes {
+
+		private final DistributionSummary bytes;
+
+		private final DistributionSummary chars;
+
+		private final DistributionSummary elements;
+
+		Sizes(MeterRegistry registry, Tags tags, String bytes, String chars, String elements) {
+			this.bytes = summary(registry, tags, bytes, "bytes");
+			this.chars = summary(registry, tags, chars, "chars");
+			this.elements = summary(registry, tags, elements, "elements");
+		}
+
+		void record(Object value) {
+			if (value instanceof byte[]) {
+				this.bytes.record(((byte[]) value).length);
+			}
+			else if (value instanceof CharSequence) {
+				this.chars.record(((CharSequence) value).length());
+			}
+			else if (value instanceof Collection) {
+				this.elements.record(((Collection<?>) value).size());
+			}
+			else if (value instanceof Map) {
+				this.elements.record(((Map<?, ?>) value).size());
+			}
+		}
+
+		private static DistributionSummary summary(MeterRegistry registry, Tags tags, String name, String unit) {
+			return DistributionSummary.builder(name).baseUnit(unit).tags(tags).publishPercentileHistogram()
+				.register(registry);
+		}
+	}
+}
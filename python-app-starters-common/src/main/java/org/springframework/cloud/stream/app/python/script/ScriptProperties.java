@@ -38,10 +38,18 @@ public class ScriptProperties {
 	private String script;
 
 	/**
-	 * Sets the Content type header for the outgoing Message.
+	 * Sets the Content type header for the outgoing Message. If 'application/octet-stream', the script runs in binary
+	 * mode: a byte array payload is bound as a read-only memoryview over it and a bytearray, memoryview or str result
+	 * is returned as a byte array.
 	 */
 	private MediaType contentType;
 
+	/**
+	 * The name of a function defined by the script to call for each message, e.g. 'process'. If set, the script is
+	 * run once to define the function, which is then called with the payload and headers.
+	 */
+	private String function;
+
 	public MediaType getContentType() {
 		return contentType;
 	}
@@ -58,6 +66,14 @@ public class ScriptProperties {
 		this.script = script;
 	}
 
+	public String getFunction() {
+		return function;
+	}
+
+	public void setFunction(String function) {
+		this.function = function;
+	}
+
 	public Resource getScriptResource() {
 		return resolveResource(script);
 	}
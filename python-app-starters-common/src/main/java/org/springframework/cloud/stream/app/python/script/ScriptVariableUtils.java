@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptProperties;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the static variables of a script from its properties. A variable is either 'name=value', bound as a String,
+ * or 'name:type=value', converted once to the given type: 'str', 'int', 'float', 'bool' or 'json'. The maps and lists
+ * of a 'json' value are unmodifiable, as the value is shared by every message.
+ **/
+public abstract class ScriptVariableUtils {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * @param properties the script properties.
+	 * @return the variables of 'variables', then those of 'variable-map', which take precedence.
+	 * @throws IllegalArgumentException if a variable is malformed or its value does not convert to its type.
+	 */
+	public static Map<String, Object> staticVariables(JythonScriptProperties properties) {
+		Map<String, Object> variables = parse(properties.getVariables(), properties.getDelimiter().value());
+		if (properties.getVariableMap() != null) {
+			variables.putAll(properties.getVariableMap());
+		}
+		return variables;
+	}
+
+	/**
+	 * @param variables a delimited string of variables, e.g. 'label=foo,threshold:float=0.8', or null.
+	 * @param delimiter the delimiter.
+	 * @return the variables, in their order.
+	 * @throws IllegalArgumentException if a variable is malformed or its value does not convert to its type.
+	 */
+	public static Map<String, Object> parse(String variables, String delimiter) {
+		Map<String, Object> parsed = new LinkedHashMap<>();
+		if (!StringUtils.hasText(variables)) {
+			return parsed;
+		}
+		for (String variable : StringUtils.delimitedListToStringArray(variables, delimiter)) {
+			if (!StringUtils.hasText(variable)) {
+				continue;
+			}
+			int equals = variable.indexOf('=');
+			if (equals < 1) {
+				throw new IllegalArgumentException(String.format("Variable '%s' is not of the form name=value",
+					variable.trim()));
+			}
+			String name = variable.substring(0, equals).trim();
+			String value = variable.substring(equals + 1).trim();
+			String type = "str";
+			int colon = name.indexOf(':');
+			if (colon >= 0) {
+				type = name.substring(colon + 1).trim();
+				name = name.substring(0, colon).trim();
+			}
+			if (!StringUtils.hasText(name)) {
+				throw new IllegalArgumentException(String.format("Variable '%s' has no name", variable.trim()));
+			}
+			parsed.put(name, convert(name, type, value));
+		}
+		return parsed;
+	}
+
+	private static Object convert(String name, String type, String value) {
+		try {
+			switch (type) {
+			case "str":
+				return value;
+			case "int":
+				long number = Long.parseLong(value);
+				return number == (int) number ? (Object) (int) number : (Object) number;
+			case "float":
+				return Double.parseDouble(value);
+			case "bool":
+				if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+					return Boolean.parseBoolean(value);
+				}
+				throw new IllegalArgumentException(String.format("'%s' is not true or false", value));
+			case "json":
+				return unmodifiable(objectMapper.readValue(value, Object.class));
+			default:
+				throw new IllegalArgumentException(String.format(
+					"Unknown type '%s', expected one of str, int, float, bool or json", type));
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			throw new IllegalArgumentException(String.format("Cannot convert variable '%s' to %s: %s", name, type,
+				e.getMessage()), e);
+		}
+	}
+
+	private static Object unmodifiable(Object value) {
+		if (value instanceof Map) {
+			Map<Object, Object> map = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				map.put(entry.getKey(), unmodifiable(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<>();
+			for (Object item : (List<?>) value) {
+				list.add(unmodifiable(item));
+			}
+			return Collections.unmodifiableList(list);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.core.io.Resource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a script a number of times against sample payloads once all singletons are created, that is before the
+ * bindings start consuming, so the first messages do not pay for imports and for the JIT compiling the interpreter.
+ * The runs are repeated concurrently on one thread per pooled interpreter or worker, so all of them are warmed up, and
+ * the namespaces of the script are reset afterwards.
+ * <p>
+ * The payloads are read from a resource, one String payload per line. Each run is recorded by the
+ * {@link ScriptMetrics#WARMUP} timer and not by the other script meters. A run that fails ends the warm-up with
+ * a warning, as the sample payloads may not suit the script.
+ **/
+public class ScriptWarmUp implements SmartInitializingSingleton {
+
+	private final static Log logger = LogFactory.getLog(ScriptWarmUp.class);
+
+	private final AbstractPythonScriptExecutor scriptExecutor;
+
+	private final Resource payloads;
+
+	private final int iterations;
+
+	private final List<Variant> variants = new ArrayList<>();
+
+	private int batchSize = 1;
+
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * @param scriptExecutor the script executor.
+	 * @param payloads a resource with one sample payload per line.
+	 * @param iterations the number of runs per pooled interpreter or worker, for each set of variables.
+	 */
+	public ScriptWarmUp(AbstractPythonScriptExecutor scriptExecutor, Resource payloads, int iterations) {
+		Assert.notNull(scriptExecutor, "'scriptExecutor' cannot be null");
+		Assert.notNull(payloads, "'payloads' cannot be null");
+		Assert.isTrue(iterations > 0, "'iterations' must be greater than 0");
+		this.scriptExecutor = scriptExecutor;
+		this.payloads = payloads;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Warm up with the given additional variables, such as the channel a wrapper script is called for. If none are
+	 * added, the script is warmed up without additional variables.
+	 * @param variables additional bind variables.
+	 * @param tags additional tags for the warm-up timer, as key/value pairs.
+	 */
+	public void addVariables(Map<String, Object> variables, String... tags) {
+		this.variants.add(new Variant(variables, tags));
+	}
+
+	/**
+	 * @param batchSize if greater than 1, each run passes a batch of this many payloads to the script.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		warmUp();
+	}
+
+	/**
+	 * Run the warm-up, then reset the namespaces of the script, so the first message does not see the names the
+	 * warm-up runs assigned.
+	 */
+	public void warmUp() {
+		List<Message<?>> messages = readPayloads();
+		if (messages.isEmpty()) {
+			logger.warn(String.format("No warm-up payloads in %s", this.payloads));
+			return;
+		}
+		List<Variant> variants = this.variants.isEmpty() ? Collections.singletonList(new Variant(null)) :
+			this.variants;
+		try {
+			for (Variant variant : variants) {
+				warmUp(variant, messages);
+			}
+		}
+		finally {
+			this.scriptExecutor.resetNamespaces();
+		}
+	}
+
+	/*
+	 * Runs the iterations on as many threads as the pool has interpreters or workers, so that each of them is created
+	 * and warmed up rather than the one a single thread would keep borrowing.
+	 */
+	private void warmUp(Variant variant, List<Message<?>> messages) {
+		String script = StringUtils.getFilename(this.scriptExecutor.getScriptPath());
+		Timer timer = this.meterRegistry == null ? null : Timer.builder(ScriptMetrics.WARMUP)
+			.tags(Tags.of("engine", this.scriptExecutor.getEngine(), "script", script).and(variant.tags))
+			.register(this.meterRegistry);
+		int threads = this.scriptExecutor.getPoolSize();
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+			new CustomizableThreadFactory("script-warm-up-"));
+		AtomicBoolean failed = new AtomicBoolean();
+		long start = System.nanoTime();
+		try {
+			List<Future<long[]>> results = new ArrayList<>(threads);
+			for (int thread = 0; thread < threads; thread++) {
+				int offset = thread;
+				results.add(executor.submit(() -> run(script, variant, messages, offset, timer, failed)));
+			}
+			long first = 0;
+			long last = 0;
+			for (Future<long[]> result : results) {
+				long[] durations = result.get();
+				if (durations != null) {
+					first = Math.max(first, durations[0]);
+					last = Math.max(last, durations[1]);
+				}
+			}
+			if (!failed.get()) {
+				logger.info(String.format("Warmed up script %s%s with %d runs on each of %d threads in %d ms; "
+						+ "the slowest first run took %.1f ms, the slowest last run %.1f ms", script, variant,
+					this.iterations, threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), first / 1e6,
+					last / 1e6));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn(String.format("Warm-up of script %s%s was interrupted", script, variant));
+		}
+		catch (ExecutionException e) {
+			logger.warn(String.format("Warm-up of script %s%s failed", script, variant), e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Returns the durations of the first and the last run, or null if a run failed, which stops the other threads too.
+	 */
+	private long[] run(String script, Variant variant, List<Message<?>> messages, int offset, Timer timer,
+		AtomicBoolean failed) {
+		long first = 0;
+		long last = 0;
+		for (int i = 0; i < this.iterations && !failed.get(); i++) {
+			int index = offset + i;
+			long start = System.nanoTime();
+			try {
+				if (this.batchSize > 1) {
+					List<Message<?>> batch = new ArrayList<>(this.batchSize);
+					for (int j = 0; j < this.batchSize; j++) {
+						batch.add(messages.get((index * this.batchSize + j) % messages.size()));
+					}
+					this.scriptExecutor.executeBatch(batch, variant.variables, ScriptMetrics.NONE);
+				}
+				else {
+					this.scriptExecutor.execute(messages.get(index % messages.size()), variant.variables,
+						ScriptMetrics.NONE);
+				}
+			}
+			catch (RuntimeException e) {
+				if (failed.compareAndSet(false, true)) {
+					logger.warn(String.format("Warm-up of script %s%s failed after %d runs", script, variant, i), e);
+				}
+				return null;
+			}
+			last = System.nanoTime() - start;
+			if (i == 0) {
+				first = last;
+			}
+			if (timer != null) {
+				timer.record(last, TimeUnit.NANOSECONDS);
+			}
+		}
+		return new long[] { first, last };
+	}
+
+	private List<Message<?>> readPayloads() {
+		try (BufferedReader reader = new BufferedReader(
+			new InputStreamReader(this.payloads.getInputStream(), StandardCharsets.UTF_8))) {
+			return reader.lines()
+				.filter(StringUtils::hasLength)
+				.map(line -> MessageBuilder.withPayload(line)
+					.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN_VALUE)
+					.build())
+				.collect(Collectors.toList());
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(String.format("Cannot read the warm-up payloads from %s", this.payloads),
+				e);
+		}
+	}
+
+	/**
+	 * A set of additional variables to warm up with, and the tags that identify it.
+	 */
+	private static class Variant {
+
+		private final Map<String, Object> variables;
+
+		private final String[] tags;
+
+		Variant(Map<String, Object> variables, String... tags) {
+			this.variables = variables;
+			this.tags = tags;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder description = new StringBuilder();
+			for (int i = 0; i + 1 < this.tags.length; i += 2) {
+				description.append(String.format(" (%s=%s)", this.tags[i], this.tags[i + 1]));
+			}
+			return description.toString();
+		}
+	}
+}
@@ -16,13 +16,17 @@
 
 package org.springframework.cloud.stream.app.python.wrapper;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.app.common.resource.repository.JGitResourceRepository;
 import org.springframework.cloud.stream.app.common.resource.repository.config.GitResourceRepositoryConfiguration;
-import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
 import org.springframework.cloud.stream.app.python.jython.ScriptVariableGeneratorConfiguration;
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptExecutorUtils;
 import org.springframework.cloud.stream.app.python.script.ScriptResourceUtils;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -47,11 +51,13 @@ public class JythonWrapperConfiguration {
 		private JythonWrapperProperties properties;
 
 		@Bean
-		public JythonScriptExecutor jythonWrapper(ScriptVariableGenerator variableGenerator) {
+		public AbstractPythonScriptExecutor jythonWrapper(ScriptVariableGenerator variableGenerator,
+			ObjectProvider<MeterRegistry> meterRegistry) {
 			if (gitResourceRepository != null) {
 				ScriptResourceUtils.overwriteScriptLocationToGitCloneTarget(gitResourceRepository, properties);
 			}
-			return new JythonScriptExecutor(properties.getScriptResource(), variableGenerator);
+			return ScriptExecutorUtils.createScriptExecutor(properties, variableGenerator,
+				meterRegistry.getIfAvailable());
 		}
 
 	}
@@ -0,0 +1,259 @@
+'''
+A long-lived CPython worker for the CPythonScriptExecutor.
+
+The worker reads the script source, the name of its result variable and a JSON object with the variables bound for
+every request from stdin, compiles the script and answers with what it found out about the use of 'headers': whether
+the script reads them, and which top-level functions ignore their headers argument, so the JVM need not send them. It
+then runs the script once for each request and writes the result. Values are framed as a one byte type followed by a
+big-endian int and the data:
+
+  N  None (no length or data)
+  S  UTF-8 string
+  B  bytes
+  J  UTF-8 JSON
+  L  list: the int is the number of values that follow
+  E  error: the UTF-8 traceback
+  M  a value in shared memory: the type byte of the value, then the int offset and int length of its data
+
+If the JVM passes the path, size and threshold of a shared memory file, the first half of the file is a ring written
+by the JVM and the second half a ring written by the worker. Values of at least the threshold length are written to
+the ring and only their offsets and lengths are sent. Such values are read in place: bytes arrive as a read-only
+memoryview of the ring, valid until the next request, and strings and JSON are decoded straight from it. Bytes read
+from the pipe are wrapped in a memoryview too, so the script sees the same type whatever the size of the value.
+
+A request is the byte 'X' followed by the payload variable name, the function name (or None), a JSON object with the
+other variables of the request and the payload. The byte 'R' drops the namespace a function was defined in, so the
+next request runs the script again, and is answered with None. The script may print to stdout; it is redirected to
+stderr.
+'''
+import ast
+import json
+import mmap
+import os
+import struct
+import sys
+import traceback
+from types import MappingProxyType
+
+_in = sys.stdin.buffer
+_out = sys.stdout.buffer
+sys.stdin = open(os.devnull)
+sys.stdout = sys.stderr
+
+# scripts written for Jython may use its Jackson-backed 'springjson' module, which has the same loads and dumps
+sys.modules.setdefault('springjson', json)
+
+
+class SharedMemory:
+    def __init__(self, path, size, threshold):
+        with open(path, 'r+b') as f:
+            self.map = mmap.mmap(f.fileno(), 2 * size)
+            # a second, read-only mapping of the same memory, so the views handed to the script cannot write to it
+            self.view = memoryview(mmap.mmap(f.fileno(), 2 * size, access=mmap.ACCESS_READ))
+        self.size = size
+        self.threshold = threshold
+        self.position = 0
+        self.used = 0
+
+    def reset(self):
+        self.used = 0
+
+    def read(self, offset, length):
+        'Returns a view of the data, which the next request may overwrite'
+        return self.view[offset:offset + length]
+
+    def write(self, data):
+        'Returns the offset of the data, or -1 if it is too small or does not fit in this response'
+        length = len(data)
+        if length < self.threshold or self.used + length > self.size:
+            return -1
+        if self.position + length > self.size:
+            self.position = 0
+        offset = self.size + self.position
+        self.map[offset:offset + length] = data
+        self.position += length
+        self.used += length
+        return offset
+
+
+shared_memory = None
+
+# names that look up variables dynamically, so a script calling them may read 'headers' without naming it
+DYNAMIC_LOOKUPS = {'globals', 'locals', 'vars', 'eval', 'exec', '__import__'}
+
+
+def read_exactly(n):
+    data = _in.read(n)
+    if len(data) < n:
+        raise EOFError()
+    return data
+
+
+def read_int():
+    return struct.unpack('>i', read_exactly(4))[0]
+
+
+def read_value():
+    value_type = read_exactly(1)
+    if value_type == b'N':
+        return None
+    if value_type == b'L':
+        return [read_value() for _ in range(read_int())]
+    if value_type == b'M':
+        value_type = read_exactly(1)
+        offset = read_int()
+        data = shared_memory.read(offset, read_int())
+    else:
+        data = read_exactly(read_int())
+    if value_type == b'S':
+        return str(data, 'utf-8')
+    if value_type == b'B':
+        return memoryview(data)
+    if value_type == b'J':
+        return json.loads(str(data, 'utf-8'))
+    raise ValueError('Unknown value type %r' % value_type)
+
+
+def write_data(value_type, data, frames):
+    offset = -1 if shared_memory is None else shared_memory.write(data)
+    if offset >= 0:
+        frames.append(b'M')
+        frames.append(value_type)
+        frames.append(struct.pack('>ii', offset, len(data)))
+        return
+    frames.append(value_type)
+    frames.append(struct.pack('>i', len(data)))
+    frames.append(data)
+
+
+def write_value(value, frames):
+    if value is None:
+        frames.append(b'N')
+    elif isinstance(value, str):
+        write_data(b'S', value.encode('utf-8'), frames)
+    elif isinstance(value, bytes):
+        write_data(b'B', value, frames)
+    elif isinstance(value, (bytearray, memoryview)):
+        # a contiguous buffer is written as a view rather than copied into bytes first
+        view = memoryview(value)
+        write_data(b'B', view.cast('B') if view.c_contiguous else view.tobytes(), frames)
+    elif isinstance(value, (list, tuple)):
+        frames.append(b'L')
+        frames.append(struct.pack('>i', len(value)))
+        for item in value:
+            write_value(item, frames)
+    else:
+        write_data(b'J', json.dumps(value, default=json_default).encode('utf-8'), frames)
+
+
+def freeze(value):
+    'Returns the value with its dicts and lists made read-only, as the static variables are shared by every request'
+    if isinstance(value, dict):
+        return MappingProxyType({key: freeze(item) for key, item in value.items()})
+    if isinstance(value, list):
+        return tuple(freeze(item) for item in value)
+    return value
+
+
+def json_default(value):
+    return dict(value) if isinstance(value, MappingProxyType) else str(value)
+
+
+def send(value):
+    if shared_memory is not None:
+        shared_memory.reset()
+    frames = []
+    write_value(value, frames)
+    _out.write(b''.join(frames))
+    _out.flush()
+
+
+def send_error():
+    if shared_memory is not None:
+        shared_memory.reset()
+    frames = []
+    write_data(b'E', traceback.format_exc().encode('utf-8'), frames)
+    _out.write(b''.join(frames))
+    _out.flush()
+
+
+def names(node):
+    return {child.id for child in ast.walk(node) if isinstance(child, ast.Name)}
+
+
+def headers_usage(source):
+    'Returns whether the script reads headers, and the top-level functions that ignore their headers argument'
+    try:
+        tree = ast.parse(source)
+    except Exception:
+        return {'headers': True, 'functions_ignoring_headers': []}
+    used = names(tree)
+    if used & DYNAMIC_LOOKUPS:
+        return {'headers': True, 'functions_ignoring_headers': []}
+    functions = [node for node in tree.body if isinstance(node, (ast.FunctionDef, ast.AsyncFunctionDef))]
+    defined = [function.name for function in functions]
+    ignoring = []
+    for function in functions:
+        arguments = getattr(function.args, 'posonlyargs', []) + function.args.args
+        if function.decorator_list or len(arguments) < 2 or defined.count(function.name) > 1:
+            continue
+        body = set()
+        for statement in function.body:
+            body |= names(statement)
+        if not body & {arguments[1].arg, 'headers'}:
+            ignoring.append(function.name)
+    return {'headers': 'headers' in used, 'functions_ignoring_headers': ignoring}
+
+
+def main():
+    global shared_memory
+    path = sys.argv[1]
+    if len(sys.argv) > 4:
+        shared_memory = SharedMemory(sys.argv[2], int(sys.argv[3]), int(sys.argv[4]))
+    source = read_value()
+    result_variable = read_value()
+    static_variables = {name: freeze(value) for name, value in read_value().items()}
+    try:
+        code = compile(source, path, 'exec')
+    except Exception:
+        send_error()
+        return
+    send(headers_usage(source))
+
+    namespace = None
+    while True:
+        op = _in.read(1)
+        if not op:
+            return
+        if op == b'R':
+            namespace = None
+            send(None)
+            continue
+        payload_variable = read_value()
+        function = read_value()
+        variables = read_value()
+        variables[payload_variable] = read_value()
+        try:
+            if function:
+                if namespace is None:
+                    namespace = dict(static_variables)
+                    namespace.update(variables)
+                    exec(code, namespace)
+                else:
+                    namespace.update(variables)
+                target = namespace.get(function)
+                if not callable(target):
+                    raise NameError("Script %s does not define a function '%s'" % (path, function))
+                result = target(variables[payload_variable], variables.get('headers'))
+            else:
+                scope = dict(static_variables)
+                scope.update(variables)
+                exec(code, scope)
+                result = scope.get(result_variable)
+            send(result)
+        except Exception:
+            send_error()
+
+
+if __name__ == '__main__':
+    main()
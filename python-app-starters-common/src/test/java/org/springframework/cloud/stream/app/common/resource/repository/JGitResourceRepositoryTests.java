@@ -50,6 +50,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.springframework.cloud.config.server.support.AwsCodeCommitCredentialProvider;
 import org.springframework.cloud.config.server.support.GitCredentialsProviderFactory;
@@ -59,9 +60,15 @@ import org.springframework.cloud.config.server.test.ConfigServerTestUtils;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
@@ -91,6 +98,9 @@ public class JGitResourceRepositoryTests {
 	@Rule
 	public final ExpectedException exception = ExpectedException.none();
 
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
 	@Before
 	public void init() throws Exception {
 		if (this.basedir.exists()) {
@@ -138,6 +148,160 @@ public class JGitResourceRepositoryTests {
 
 	}
 
+	@Test
+	public void singleBranchSparseCheckout() throws Exception {
+		File remote = this.folder.newFolder("remote");
+		Git origin = Git.init().setDirectory(remote).call();
+		commit(origin, "apps/upper/upper.py", "result = payload.upper()");
+		commit(origin, "apps/upper/helpers.py", "pass");
+		commit(origin, "other/data.txt", "data");
+		origin.branchCreate().setName("other").call();
+
+		this.repository.setUri(remote.getAbsolutePath());
+		this.repository.setBasedir(this.basedir);
+		this.repository.setSingleBranch(true);
+		this.repository.setSparseCheckout(true);
+		this.repository.setSparseCheckoutPaths(Collections.singletonList("apps/upper"));
+		this.repository.afterPropertiesSet();
+
+		File checkout = this.repository.getBasedir();
+		assertTrue(new File(checkout, "apps/upper/upper.py").exists());
+		assertTrue(new File(checkout, "apps/upper/helpers.py").exists());
+		assertFalse(new File(checkout, "other").exists());
+		try (Git clone = Git.open(checkout)) {
+			assertThat(clone.getRepository().findRef("refs/remotes/origin/other"), is((Ref) null));
+		}
+
+		String head = commit(origin, "apps/upper/upper.py", "result = payload.lower()");
+		origin.rm().addFilepattern("apps/upper/helpers.py").call();
+		origin.commit().setMessage("remove helpers").call();
+		String refreshed = this.repository.refresh("master");
+		assertFalse(refreshed.equals(head));
+		assertEquals(origin.getRepository().resolve("HEAD").getName(), refreshed);
+		assertEquals("result = payload.lower()",
+			new String(Files.readAllBytes(new File(checkout, "apps/upper/upper.py").toPath())));
+		assertFalse(new File(checkout, "apps/upper/helpers.py").exists());
+		assertFalse(new File(checkout, "other").exists());
+		origin.close();
+	}
+
+	@Test
+	public void persistentCloneIsReusedAcrossRestarts() throws Exception {
+		File remote = this.folder.newFolder("remote");
+		Git origin = Git.init().setDirectory(remote).call();
+		commit(origin, "upper.py", "result = payload.upper()");
+		File cache = this.folder.newFolder("cache");
+		File unrelated = new File(cache, "unrelated.txt");
+		assertTrue(unrelated.createNewFile());
+
+		this.repository.setUri(remote.getAbsolutePath());
+		this.repository.setBasedir(cache);
+		this.repository.setPersistent(true);
+		this.repository.afterPropertiesSet();
+		File clone = this.repository.getBasedir();
+		assertEquals(cache.getAbsoluteFile(), clone.getParentFile());
+		File marker = new File(clone, ".git/marker");
+		assertTrue(marker.createNewFile());
+
+		String head = commit(origin, "upper.py", "result = payload.lower()");
+		JGitResourceRepository restarted = new JGitResourceRepository();
+		restarted.setUri(remote.getAbsolutePath());
+		restarted.setBasedir(cache);
+		restarted.setPersistent(true);
+		restarted.afterPropertiesSet();
+		assertEquals(clone, restarted.getBasedir());
+		assertTrue(marker.exists());
+		assertEquals("result = payload.lower()", new String(Files.readAllBytes(new File(clone, "upper.py").toPath())));
+		assertEquals(head, restarted.refresh("master"));
+
+		File otherRemote = this.folder.newFolder("other");
+		Git other = Git.init().setDirectory(otherRemote).call();
+		commit(other, "lower.py", "result = payload.lower()");
+		JGitResourceRepository moved = new JGitResourceRepository();
+		moved.setUri(otherRemote.getAbsolutePath());
+		moved.setBasedir(cache);
+		moved.setPersistent(true);
+		moved.afterPropertiesSet();
+		assertFalse(clone.equals(moved.getBasedir()));
+		assertTrue(new File(moved.getBasedir(), "lower.py").exists());
+		assertTrue(marker.exists());
+		assertTrue(unrelated.exists());
+		other.close();
+		origin.close();
+	}
+
+	@Test
+	public void instancesSharingBasedirCloneInTurn() throws Exception {
+		File remote = this.folder.newFolder("remote");
+		Git origin = Git.init().setDirectory(remote).call();
+		commit(origin, "upper.py", "result = payload.upper()");
+		File cache = this.folder.newFolder("cache");
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		List<Future<File>> clones = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			clones.add(executor.submit(() -> {
+				JGitResourceRepository repository = new JGitResourceRepository();
+				repository.setUri(remote.getAbsolutePath());
+				repository.setBasedir(cache);
+				repository.setPersistent(true);
+				repository.afterPropertiesSet();
+				return repository.getBasedir();
+			}));
+		}
+		File clone = clones.get(0).get(30, TimeUnit.SECONDS);
+		assertEquals(clone, clones.get(1).get(30, TimeUnit.SECONDS));
+		assertEquals("result = payload.upper()", new String(Files.readAllBytes(new File(clone, "upper.py").toPath())));
+		executor.shutdown();
+		origin.close();
+	}
+
+	@Test
+	public void instancesShareMirror() throws Exception {
+		File remote = this.folder.newFolder("remote");
+		Git origin = Git.init().setDirectory(remote).call();
+		commit(origin, "upper.py", "result = payload.upper()");
+		File mirrorDir = this.folder.newFolder("mirror");
+
+		JGitResourceRepository first = mirroredRepository(remote, mirrorDir, this.folder.newFolder("first"));
+		JGitResourceRepository second = mirroredRepository(remote, mirrorDir, this.folder.newFolder("second"));
+		File[] mirrors = mirrorDir.listFiles((dir, name) -> name.endsWith(".git"));
+		assertEquals(1, mirrors.length);
+		for (JGitResourceRepository repository : Arrays.asList(first, second)) {
+			File checkout = repository.getBasedir();
+			assertEquals("result = payload.upper()",
+				new String(Files.readAllBytes(new File(checkout, "upper.py").toPath())));
+			assertEquals(new File(mirrors[0], "objects").getAbsolutePath(),
+				new String(Files.readAllBytes(new File(checkout, ".git/objects/info/alternates").toPath())).trim());
+			assertEquals(0, new File(checkout, ".git/objects/pack").list().length);
+		}
+
+		String head = commit(origin, "upper.py", "result = payload.lower()");
+		assertEquals(head, first.refresh("master"));
+		assertEquals(head, second.refresh("master"));
+		assertEquals("result = payload.lower()",
+			new String(Files.readAllBytes(new File(second.getBasedir(), "upper.py").toPath())));
+		origin.close();
+	}
+
+	private JGitResourceRepository mirroredRepository(File remote, File mirrorDir, File basedir) throws Exception {
+		JGitResourceRepository repository = new JGitResourceRepository();
+		repository.setUri(remote.getAbsolutePath());
+		repository.setBasedir(basedir);
+		repository.setPersistent(true);
+		repository.setMirrorDir(mirrorDir);
+		repository.afterPropertiesSet();
+		return repository;
+	}
+
+	private String commit(Git git, String path, String content) throws Exception {
+		File file = new File(git.getRepository().getWorkTree(), path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes());
+		git.add().addFilepattern(path).call();
+		return git.commit().setMessage("update " + path).call().getName();
+	}
+
 	@Test
 	public void uriWithHostOnly() throws Exception {
 		this.repository.setUri("git://localhost");
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.cpython;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool.ExhaustedPolicy;
+import org.springframework.cloud.stream.app.python.script.ScriptVariableUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Runs against the local 'python3' and is skipped if there is none.
+ */
+public class CPythonScriptExecutorTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CPythonScriptExecutor executor;
+
+	@BeforeClass
+	public static void assumePython() {
+		boolean available;
+		try {
+			available = new ProcessBuilder("python3", "--version").start().waitFor() == 0;
+		}
+		catch (Exception e) {
+			available = false;
+		}
+		Assume.assumeTrue("python3 is not available", available);
+	}
+
+	@After
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.destroy();
+		}
+	}
+
+	@Test
+	public void simple() throws Exception {
+		this.executor = executor(new ClassPathResource("wrapper/simple_wrapper.py"));
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO");
+		assertThat(this.executor.execute(new GenericMessage<>("world"))).isEqualTo("WORLD");
+	}
+
+	@Test
+	public void bytes() throws Exception {
+		this.executor = executor(new ClassPathResource("cpython/reverse.py"));
+		assertThat(this.executor.execute(new GenericMessage<>(new byte[] { 1, 2, 3 })))
+			.isEqualTo(new byte[] { 3, 2, 1 });
+	}
+
+	@Test
+	public void binary() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = payload.tobytes().decode() if payload[0] == 97 else payload[1:]",
+			StandardCharsets.UTF_8);
+		CPythonWorkerPool workerPool = new CPythonWorkerPool("python3", 1, ExhaustedPolicy.BLOCK, -1);
+		workerPool.setSharedMemory(1024 * 1024, 1024);
+		this.executor = new CPythonScriptExecutor(new FileSystemResource(file), null, workerPool);
+		this.executor.setBinary(true);
+		// the same script runs on payloads passed through the pipe and through shared memory
+		for (int length : new int[] { 2, 4096 }) {
+			byte[] decoded = new byte[length];
+			Arrays.fill(decoded, (byte) 'a');
+			assertThat(this.executor.execute(new GenericMessage<>(decoded))).isEqualTo(decoded);
+			byte[] sliced = decoded.clone();
+			sliced[0] = 'b';
+			assertThat(this.executor.execute(new GenericMessage<>(sliced)))
+				.isEqualTo(Arrays.copyOfRange(sliced, 1, length));
+		}
+	}
+
+	@Test
+	public void function() throws Exception {
+		this.executor = executor(new ClassPathResource("wrapper/function_wrapper.py"));
+		this.executor.setFunction("process");
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO 1");
+		assertThat(this.executor.execute(new GenericMessage<>("world"))).isEqualTo("WORLD 2");
+		this.executor.resetNamespaces();
+		assertThat(this.executor.execute(new GenericMessage<>("again"))).isEqualTo("AGAIN 1");
+	}
+
+	@Test
+	public void batch() throws Exception {
+		this.executor = executor(new ClassPathResource("cpython/batch_upper.py"));
+		List<Message<?>> messages = Arrays.asList(
+			MessageBuilder.withPayload("a").setHeader("suffix", "1").build(),
+			MessageBuilder.withPayload("b").setHeader("suffix", "2").build());
+		assertThat(this.executor.executeBatch(messages, Collections.emptyMap())).containsExactly("A1", "B2");
+	}
+
+	@Test
+	public void batchWithoutOneResultPerMessage() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "results = payloads[1:]", StandardCharsets.UTF_8);
+		this.executor = executor(new FileSystemResource(file));
+		List<Message<?>> messages = Arrays.asList(new GenericMessage<>("a"), new GenericMessage<>("b"));
+		assertThatThrownBy(() -> this.executor.executeBatch(messages, null)).isInstanceOf(IllegalStateException.class)
+			.hasMessageEndingWith("must return a list with one result for each of 2 messages, but returned a list of 1");
+	}
+
+	@Test
+	public void staticVariables() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = '%s %s %d' % (payload, label, limit + 1)", StandardCharsets.UTF_8);
+		this.executor = executor(new FileSystemResource(file));
+		this.executor.setStaticVariables(ScriptVariableUtils.parse("label=static,limit:int=41", ","));
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("hello static 42");
+		assertThat(this.executor.execute(new GenericMessage<>("hello"), Collections.singletonMap("label", "dynamic")))
+			.isEqualTo("hello dynamic 42");
+
+		this.executor.setStaticVariables(ScriptVariableUtils.parse("label=changed,limit:int=1", ","));
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("hello changed 2");
+	}
+
+	@Test
+	public void jsonStaticVariablesAreReadOnly() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "if payload == 'add':\n    limits['max'] = 3\n"
+			+ "result = '%s %d' % (','.join(labels), limits['max'])", StandardCharsets.UTF_8);
+		this.executor = executor(new FileSystemResource(file));
+		this.executor.setStaticVariables(
+			ScriptVariableUtils.parse("labels:json=[\"a\", \"b\"];limits:json={\"max\": 2}", ";"));
+		assertThat(this.executor.execute(new GenericMessage<>("read"))).isEqualTo("a,b 2");
+		assertThatThrownBy(() -> this.executor.execute(new GenericMessage<>("add")))
+			.isInstanceOf(IllegalStateException.class).hasMessageContaining("does not support item assignment");
+		assertThat(this.executor.execute(new GenericMessage<>("read"))).isEqualTo("a,b 2");
+	}
+
+	@Test
+	public void headersAreOnlySentIfRead() throws Exception {
+		String source = "def ignores(payload, headers):\n    return payload\n\n"
+			+ "def reads(payload, h):\n    return h['suffix']\n\nresult = payload";
+		try (CPythonWorker worker = new CPythonWorker(Collections.singletonList("python3"),
+			new CPythonWorkerPool.Script("script.py", source, "result", Collections.emptyMap()), 0, 0, 0)) {
+			assertThat(worker.usesHeaders(null)).isFalse();
+			assertThat(worker.usesHeaders("ignores")).isFalse();
+			assertThat(worker.usesHeaders("reads")).isTrue();
+		}
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, source, StandardCharsets.UTF_8);
+		this.executor = executor(new FileSystemResource(file));
+		this.executor.setFunction("reads");
+		assertThat(this.executor.execute(MessageBuilder.withPayload("a").setHeader("suffix", "1").build()))
+			.isEqualTo("1");
+		this.executor.setFunction("ignores");
+		assertThat(this.executor.execute(new GenericMessage<>("a"))).isEqualTo("a");
+	}
+
+	@Test
+	public void scriptErrorKeepsWorker() throws Exception {
+		this.executor = executor(new ClassPathResource("wrapper/simple_wrapper.py"));
+		assertThatThrownBy(() -> this.executor.execute(new GenericMessage<>(1)))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("AttributeError");
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO");
+	}
+
+	@Test
+	public void crashedWorkerIsReplaced() throws Exception {
+		this.executor = executor(new ClassPathResource("cpython/reverse.py"));
+		assertThatThrownBy(() -> this.executor.execute(new GenericMessage<>("crash".getBytes())))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("worker failed");
+		assertThat(this.executor.execute(new GenericMessage<>("abc".getBytes()))).isEqualTo("cba".getBytes());
+	}
+
+	@Test
+	public void unresponsiveWorkerIsStoppedAndReplaced() throws Exception {
+		CPythonWorkerPool workerPool = new CPythonWorkerPool("python3", 1, ExhaustedPolicy.BLOCK, -1);
+		workerPool.setTimeout(2000);
+		this.executor = new CPythonScriptExecutor(new ClassPathResource("cpython/sleep.py"), null, workerPool);
+		assertThatThrownBy(() -> this.executor.execute(new GenericMessage<>("hang".getBytes())))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("worker failed")
+			.hasStackTraceContaining("did not respond within 2000 ms");
+		assertThat(this.executor.execute(new GenericMessage<>("abc".getBytes()))).isEqualTo("abc".getBytes());
+	}
+
+	@Test
+	public void sharedMemory() throws Exception {
+		CPythonWorkerPool workerPool = new CPythonWorkerPool("python3", 1, ExhaustedPolicy.BLOCK, -1);
+		workerPool.setSharedMemory(3 * 1024 * 1024, 1024);
+		this.executor = new CPythonScriptExecutor(new ClassPathResource("cpython/reverse.py"), null, workerPool);
+		byte[] payload = new byte[2 * 1024 * 1024];
+		new Random().nextBytes(payload);
+		byte[] expected = payload.clone();
+		ArrayUtils.reverse(expected);
+		for (int i = 0; i < 3; i++) {
+			assertThat((byte[]) this.executor.execute(new GenericMessage<>(payload))).isEqualTo(expected);
+		}
+		List<Message<?>> messages = Arrays.asList(new GenericMessage<>(payload), new GenericMessage<>(payload));
+		this.executor = new CPythonScriptExecutor(new ClassPathResource("cpython/reverse_all.py"), null, workerPool);
+		assertThat(this.executor.executeBatch(messages, null)).containsExactly(expected, expected);
+	}
+
+	@Test
+	public void sharedMemoryStrings() throws Exception {
+		CPythonWorkerPool workerPool = new CPythonWorkerPool("python3", 1, ExhaustedPolicy.BLOCK, -1);
+		workerPool.setSharedMemory(1024 * 1024, 1024);
+		this.executor = new CPythonScriptExecutor(new ClassPathResource("wrapper/simple_wrapper.py"), null,
+			workerPool);
+		String payload = StringUtils.repeat("h\u00e9llo ", 1000);
+		assertThat(this.executor.execute(new GenericMessage<>(payload))).isEqualTo(payload.toUpperCase());
+	}
+
+	@Test
+	public void refreshKeepsScriptThatCompiles() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = payload.upper()", StandardCharsets.UTF_8);
+		this.executor = executor(new FileSystemResource(file));
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO");
+
+		FileUtils.writeStringToFile(file, "result = payload.lower(", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		assertThatThrownBy(() -> this.executor.refresh()).isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("SyntaxError");
+		assertThat(this.executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO");
+
+		FileUtils.writeStringToFile(file, "result = payload.lower()", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 2000);
+		assertThat(this.executor.refresh()).isTrue();
+		assertThat(this.executor.execute(new GenericMessage<>("HELLO"))).isEqualTo("hello");
+	}
+
+	private static CPythonScriptExecutor executor(Resource resource) throws Exception {
+		CPythonScriptExecutor executor = new CPythonScriptExecutor(resource, null,
+			new CPythonWorkerPool("python3", 1, ExhaustedPolicy.BLOCK, -1));
+		executor.afterPropertiesSet();
+		return executor;
+	}
+}
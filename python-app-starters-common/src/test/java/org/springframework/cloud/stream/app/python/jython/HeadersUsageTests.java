@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class HeadersUsageTests {
+
+	@Test
+	public void script() {
+		assertThat(usage("result = payload.upper()").isUsedBy(null)).isFalse();
+		assertThat(usage("result = headers['id']").isUsedBy(null)).isTrue();
+		assertThat(usage("result = globals()['headers']").isUsedBy(null)).isTrue();
+		assertThat(usage("exec 'result = headers'").isUsedBy(null)).isTrue();
+		assertThat(usage("result = payload +").isUsedBy(null)).isTrue();
+	}
+
+	@Test
+	public void function() {
+		HeadersUsage usage = usage("def ignores(payload, headers):\n    return payload\n\n"
+			+ "def reads(payload, h):\n    return h['id']\n\n"
+			+ "def one(payload):\n    return payload\n\n"
+			+ "@staticmethod\ndef decorated(payload, headers):\n    return payload\n");
+		assertThat(usage.isUsedBy(null)).isFalse();
+		assertThat(usage.isUsedBy("ignores")).isFalse();
+		assertThat(usage.isUsedBy("reads")).isTrue();
+		assertThat(usage.isUsedBy("one")).isTrue();
+		assertThat(usage.isUsedBy("decorated")).isTrue();
+		assertThat(usage.isUsedBy("missing")).isTrue();
+		assertThat(usage("def global_headers(payload, h):\n    return headers\n").isUsedBy("global_headers"))
+			.isTrue();
+	}
+
+	private static HeadersUsage usage(String source) {
+		return HeadersUsage.of(source, "script.py");
+	}
+}
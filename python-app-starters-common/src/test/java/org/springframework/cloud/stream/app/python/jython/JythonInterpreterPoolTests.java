@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.python.util.PythonInterpreter;
+
+public class JythonInterpreterPoolTests {
+
+	private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void interpretersAreReused() {
+		JythonInterpreterPool pool = new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1);
+		PythonInterpreter first = pool.execute(interpreter -> interpreter);
+		PythonInterpreter second = pool.execute(interpreter -> interpreter);
+		assertThat(second).isSameAs(first);
+		pool.close();
+	}
+
+	@Test
+	public void exhaustedPolicies() throws Exception {
+		assertThatThrownBy(() -> whileExhausted(JythonInterpreterPool.ExhaustedPolicy.REJECT, -1))
+			.isInstanceOf(RejectedExecutionException.class);
+		assertThatThrownBy(() -> whileExhausted(JythonInterpreterPool.ExhaustedPolicy.BLOCK, 10))
+			.isInstanceOf(RejectedExecutionException.class);
+		assertThat(whileExhausted(JythonInterpreterPool.ExhaustedPolicy.CALLER_RUNS, -1)).isEqualTo("ran");
+	}
+
+	@Test
+	public void callerRunsWaitsForPooledInterpreter() throws Exception {
+		JythonInterpreterPool pool = new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.CALLER_RUNS,
+			5000);
+		PythonInterpreter pooled = pool.execute(interpreter -> interpreter);
+		CountDownLatch borrowed = new CountDownLatch(1);
+		this.executorService.execute(() -> pool.execute(interpreter -> {
+			borrowed.countDown();
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}));
+		assertThat(borrowed.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(pool.<PythonInterpreter>execute(interpreter -> interpreter)).isSameAs(pooled);
+		pool.close();
+	}
+
+	@Test
+	public void failedCreationReleasesSlot() {
+		AtomicBoolean fail = new AtomicBoolean(true);
+		JythonInterpreterPool pool = new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.REJECT, -1) {
+
+			@Override
+			protected PythonInterpreter createInterpreter() {
+				if (fail.getAndSet(false)) {
+					throw new IllegalStateException("failed");
+				}
+				return super.createInterpreter();
+			}
+		};
+		assertThatThrownBy(() -> pool.execute(interpreter -> "ran")).isInstanceOf(IllegalStateException.class);
+		assertThat(pool.<String>execute(interpreter -> "ran")).isEqualTo("ran");
+		pool.close();
+	}
+
+	@Test
+	public void closeClosesInterpretersInUseWhenReturned() throws Exception {
+		AtomicBoolean closed = new AtomicBoolean();
+		JythonInterpreterPool pool = new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1) {
+
+			@Override
+			protected PythonInterpreter createInterpreter() {
+				return new PythonInterpreter() {
+
+					@Override
+					public void close() {
+						closed.set(true);
+						super.close();
+					}
+				};
+			}
+		};
+		CountDownLatch borrowed = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> used = this.executorService.submit(() -> pool.execute(interpreter -> {
+			borrowed.countDown();
+			try {
+				return release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				return false;
+			}
+		}));
+		assertThat(borrowed.await(10, TimeUnit.SECONDS)).isTrue();
+		pool.close();
+		assertThat(closed.get()).isFalse();
+		release.countDown();
+		used.get(10, TimeUnit.SECONDS);
+		assertThat(closed.get()).isTrue();
+	}
+
+	private String whileExhausted(JythonInterpreterPool.ExhaustedPolicy policy, long maxWait) throws Exception {
+		JythonInterpreterPool pool = new JythonInterpreterPool(1, policy, maxWait);
+		CountDownLatch borrowed = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		this.executorService.execute(() -> pool.execute(interpreter -> {
+			borrowed.countDown();
+			try {
+				return release.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				return false;
+			}
+		}));
+		assertThat(borrowed.await(10, TimeUnit.SECONDS)).isTrue();
+		try {
+			return pool.execute(interpreter -> "ran");
+		}
+		finally {
+			release.countDown();
+			pool.close();
+		}
+	}
+}
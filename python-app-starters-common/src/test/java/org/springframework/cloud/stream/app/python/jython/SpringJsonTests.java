@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.jython;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+import org.python.core.Py;
+import org.python.core.PyException;
+
+public class SpringJsonTests {
+
+	private final JythonInterpreterPool pool = new JythonInterpreterPool(1,
+		JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1);
+
+	@After
+	public void tearDown() {
+		this.pool.close();
+	}
+
+	@Test
+	public void loadsLikeJson() {
+		String json = "[{\"id\": 1, \"big\": 10000000000, \"ratio\": 0.5, \"ok\": true, \"none\": null, "
+			+ "\"text\": \"caf\\u00e9\", \"tags\": [\"a\", \"b\"]}]";
+		assertThat(eval("springjson.loads(s) == json.loads(s)", json)).isEqualTo(true);
+		assertThat(eval("springjson.loads(s) == json.loads(s.tostring())", json.getBytes(StandardCharsets.UTF_8)))
+			.isEqualTo(true);
+		assertThat(eval("springjson.loads(bytearray(s)) == json.loads(s.tostring())",
+			json.getBytes(StandardCharsets.UTF_8))).isEqualTo(true);
+		assertThat(eval("type(springjson.loads(s)[0]['text']).__name__", json)).isEqualTo("unicode");
+		assertThat(eval("springjson.loads(memoryview(s)[4:6])", "[1, 23, 4]")).isEqualTo(23);
+	}
+
+	@Test
+	public void dumpsLikeJson() {
+		assertThat(eval("springjson.dumps({'sentiment': u'caf\\xe9', 'scores': [1, 2.5, None, True], 1: (2,)})"
+			+ " == json.dumps({'sentiment': u'caf\\xe9', 'scores': [1, 2.5, None, True], 1: (2,)})", null))
+			.isEqualTo(true);
+		assertThat(eval("springjson.dumps({'key': [u'value', 1]})", null)).isEqualTo("{\"key\": [\"value\", 1]}");
+	}
+
+	@Test
+	public void dumpsJavaObjects() {
+		assertThat(eval("springjson.dumps(s)", Collections.singletonMap("key", Collections.singletonList(1))))
+			.isEqualTo("{\"key\": [1]}");
+	}
+
+	@Test
+	public void errorsLikeJson() {
+		assertThatThrownBy(() -> eval("springjson.loads('{')", null)).isInstanceOf(PyException.class)
+			.matches(e -> ((PyException) e).match(Py.ValueError));
+		assertThatThrownBy(() -> eval("springjson.loads('[1] 2')", null)).isInstanceOf(PyException.class)
+			.matches(e -> ((PyException) e).match(Py.ValueError));
+		assertThatThrownBy(() -> eval("springjson.dumps(object())", null)).isInstanceOf(PyException.class)
+			.matches(e -> ((PyException) e).match(Py.TypeError));
+	}
+
+	private Object eval(String expression, Object s) {
+		return this.pool.execute(interpreter -> {
+			interpreter.exec("import json, springjson");
+			interpreter.set("s", s);
+			return interpreter.eval(expression).__tojava__(Object.class);
+		});
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.stream.app.common.resource.repository.JGitResourceRepository;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.messaging.support.GenericMessage;
+
+public class GitScriptRefresherTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void swapsScriptWhenHeadMoves() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = payload.upper()", StandardCharsets.UTF_8);
+		JythonScriptExecutor executor = new JythonScriptExecutor(new FileSystemResource(file));
+		JGitResourceRepository repository = mock(JGitResourceRepository.class);
+		when(repository.getLabel()).thenReturn("master");
+		when(repository.refresh("master")).thenReturn("a", "a", "b", "c");
+		GitScriptRefresher refresher = new GitScriptRefresher(repository, Collections.singletonList(executor), 1);
+
+		assertThat(refresher.refresh()).isTrue();
+		assertThat(executor.execute(new GenericMessage<>("hello"))).isEqualTo("HELLO");
+
+		FileUtils.writeStringToFile(file, "result = payload.lower()", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		assertThat(refresher.refresh()).isFalse();
+		assertThat(executor.execute(new GenericMessage<>("HELLO"))).isEqualTo("HELLO");
+
+		assertThat(refresher.refresh()).isTrue();
+		assertThat(executor.execute(new GenericMessage<>("HELLO"))).isEqualTo("hello");
+
+		FileUtils.writeStringToFile(file, "result = payload.lower(", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		assertThat(refresher.refresh()).isTrue();
+		assertThat(executor.execute(new GenericMessage<>("HELLO"))).isEqualTo("hello");
+	}
+}
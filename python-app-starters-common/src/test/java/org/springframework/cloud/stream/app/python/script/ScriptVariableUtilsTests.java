@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptProperties;
+
+public class ScriptVariableUtilsTests {
+
+	@Test
+	public void typedVariables() {
+		Map<String, Object> variables = ScriptVariableUtils.parse(
+			"label=foo, count:int=3,big:int=10000000000,positive:float=0.8,enabled:bool=TRUE,name:str=a=b", ",");
+		assertThat(variables).containsEntry("label", "foo")
+			.containsEntry("count", 3)
+			.containsEntry("big", 10000000000L)
+			.containsEntry("positive", 0.8)
+			.containsEntry("enabled", true)
+			.containsEntry("name", "a=b");
+	}
+
+	@Test
+	public void jsonVariables() {
+		Map<String, Object> variables = ScriptVariableUtils.parse("labels:json=[\"a\", \"b\"];limits:json={\"max\": 2}",
+			";");
+		assertThat(variables.get("labels")).isEqualTo(Arrays.asList("a", "b"));
+		assertThat(variables.get("limits")).isEqualTo(Collections.singletonMap("max", 2));
+		assertThatThrownBy(() -> ((List<?>) variables.get("labels")).clear())
+			.isInstanceOf(UnsupportedOperationException.class);
+	}
+
+	@Test
+	public void malformedVariables() {
+		assertThatThrownBy(() -> ScriptVariableUtils.parse("foo", ",")).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("name=value");
+		assertThatThrownBy(() -> ScriptVariableUtils.parse("count:int=three", ","))
+			.isInstanceOf(IllegalArgumentException.class).hasMessageContaining("'count' to int");
+		assertThatThrownBy(() -> ScriptVariableUtils.parse("enabled:bool=yes", ","))
+			.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> ScriptVariableUtils.parse("foo:complex=1", ","))
+			.isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Unknown type");
+	}
+
+	@Test
+	public void variableMapTakesPrecedence() {
+		JythonScriptProperties properties = new JythonScriptProperties();
+		properties.setVariables("foo=bar,baz=car");
+		properties.setVariableMap(Collections.singletonMap("baz", 1));
+		assertThat(ScriptVariableUtils.staticVariables(properties)).containsEntry("foo", "bar").containsEntry("baz", 1);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.script;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool;
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.messaging.support.GenericMessage;
+
+public class ScriptWarmUpTests {
+
+	@Test
+	public void runsScriptOnEveryPooledInterpreterWithoutRecordingScriptMetrics() {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		JythonScriptExecutor executor = new JythonScriptExecutor(new ClassPathResource("wrapper/function_wrapper.py"),
+			null, new JythonInterpreterPool(2, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+		executor.setFunction("process");
+		executor.setMeterRegistry(meterRegistry);
+		ScriptWarmUp warmUp = new ScriptWarmUp(executor, new ClassPathResource("wrapper/warmup_payloads.txt"), 5);
+		warmUp.addVariables(Collections.singletonMap("channel", "input"), "channel", "input");
+		warmUp.setMeterRegistry(meterRegistry);
+
+		warmUp.afterSingletonsInstantiated();
+		assertThat(meterRegistry.get(ScriptMetrics.WARMUP).tags("script", "function_wrapper.py", "channel",
+			"input").timer().count()).isEqualTo(10);
+		assertThat(meterRegistry.find(ScriptMetrics.TIMER).timer()).isNull();
+		assertThat(executor.execute(new GenericMessage<>("bar"))).isEqualTo("BAR 1");
+	}
+
+	@Test
+	public void failureDoesNotFailStartup() {
+		JythonScriptExecutor executor = new JythonScriptExecutor(new ClassPathResource("wrapper/simple_wrapper.py"));
+		executor.setFunction("missing");
+		ScriptWarmUp warmUp = new ScriptWarmUp(executor, new ClassPathResource("wrapper/warmup_payloads.txt"), 5);
+		warmUp.warmUp();
+	}
+}
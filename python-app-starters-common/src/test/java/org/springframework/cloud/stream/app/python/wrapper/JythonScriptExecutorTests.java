@@ -17,20 +17,52 @@
 package org.springframework.cloud.stream.app.python.wrapper;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.python.core.Py;
+import org.python.core.PyException;
+import org.python.core.PyString;
+import org.python.core.PySystemState;
+import org.python.core.imp;
+import org.springframework.cloud.stream.app.python.jython.JythonBytecodeCache;
+import org.springframework.cloud.stream.app.python.jython.JythonInterpreterPool;
 import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptMetrics;
+import org.springframework.cloud.stream.app.python.script.ScriptVariableUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.integration.scripting.DefaultScriptVariableGenerator;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
 
 /**
  * @author David Turanski
  **/
 public class JythonScriptExecutorTests {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void simple() throws Exception {
 		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(
@@ -39,6 +71,270 @@ public class JythonScriptExecutorTests {
 		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("HELLO");
 	}
 
+	@Test
+	public void function() throws Exception {
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(
+			new ClassPathResource("wrapper/function_wrapper.py"), null,
+			new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+		jythonScriptExecutor.setFunction("process");
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("HELLO 1");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("world"))).isEqualTo("WORLD 2");
+		jythonScriptExecutor.resetNamespaces();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("again"))).isEqualTo("AGAIN 1");
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(
+			new ClassPathResource("wrapper/simple_wrapper.py"));
+		jythonScriptExecutor.setMeterRegistry(meterRegistry);
+		jythonScriptExecutor.afterPropertiesSet();
+		jythonScriptExecutor.execute(new GenericMessage<String>("hello"), null, "channel", "input");
+		assertThat(meterRegistry.get(ScriptMetrics.TIMER).tags("engine", "jython", "channel", "input", "phase",
+			"execute").timer().count()).isEqualTo(1);
+		assertThat(meterRegistry.get(ScriptMetrics.RESULT_LENGTH).tag("script", "simple_wrapper.py")
+			.summary().totalAmount()).isEqualTo(5);
+		assertThat(meterRegistry.get(ScriptMetrics.PAYLOAD_SIZE).summary().count()).isEqualTo(0);
+		assertThat(meterRegistry.get(ScriptMetrics.COMPILE).tag("script", "simple_wrapper.py").timer().count())
+			.isEqualTo(1);
+		assertThatThrownBy(() -> jythonScriptExecutor.execute(new GenericMessage<Integer>(1)))
+			.isInstanceOf(PyException.class);
+		assertThat(meterRegistry.get(ScriptMetrics.ERRORS).counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void recompilesOnlyWhenScriptChanges() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = payload.upper()", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("HELLO");
+		assertThat(jythonScriptExecutor.refresh()).isFalse();
+
+		FileUtils.writeStringToFile(file, "result = payload.lower()", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		assertThat(jythonScriptExecutor.refresh()).isTrue();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("HELLO"))).isEqualTo("hello");
+		assertThat(jythonScriptExecutor.getScript()).isEqualTo("result = payload.lower()");
+	}
+
+	@Test
+	public void bulkAndSplit() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "if channel == 'input':\n"
+			+ "    result = ','.join(p + h['suffix'] for p, h in zip(payloads, headers))\n"
+			+ "else:\n"
+			+ "    result = payload.upper().split(',')", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file));
+		jythonScriptExecutor.afterPropertiesSet();
+		List<Message<?>> messages = Arrays.asList(
+			MessageBuilder.withPayload("a").setHeader("suffix", "1").build(),
+			MessageBuilder.withPayload("b").setHeader("suffix", "2").build());
+		assertThat(jythonScriptExecutor.executeBulk(messages, Collections.singletonMap("channel", "input")))
+			.isEqualTo("a1,b2");
+		assertThat(jythonScriptExecutor.executeSplit("a1,b2", messages, Collections.singletonMap("channel", "output")))
+			.containsExactly("A1", "B2");
+		assertThatThrownBy(() -> jythonScriptExecutor.executeSplit("a1", messages,
+			Collections.singletonMap("channel", "output")))
+			.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void staticVariables() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = '%s %s %d' % (payload, label, limit + 1)", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file));
+		jythonScriptExecutor.setStaticVariables(
+			ScriptVariableUtils.parse("label=static,limit:int=41", ","));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("hello static 42");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"),
+			Collections.singletonMap("label", "dynamic"))).isEqualTo("hello dynamic 42");
+
+		jythonScriptExecutor.setStaticVariables(ScriptVariableUtils.parse("label=changed,limit:int=1", ","));
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("hello changed 2");
+	}
+
+	@Test
+	public void jsonStaticVariablesAreReadOnly() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "if payload == 'add':\n    labels.append('c')\n"
+			+ "result = '%s %d' % (','.join(labels), limits['max'])", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file));
+		jythonScriptExecutor.setStaticVariables(
+			ScriptVariableUtils.parse("labels:json=[\"a\", \"b\"];limits:json={\"max\": 2}", ";"));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("read"))).isEqualTo("a,b 2");
+		assertThatThrownBy(() -> jythonScriptExecutor.execute(new GenericMessage<String>("add")))
+			.isInstanceOf(PyException.class).satisfies(e -> assertThat(e.toString()).contains("append"));
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("read"))).isEqualTo("a,b 2");
+	}
+
+	@Test
+	public void namespaceIsReusedWithStaticVariablesReset() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "count += 1\nresult = '%s %d' % (payload, count)", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file), null,
+			new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+		jythonScriptExecutor.setStaticVariables(Collections.singletonMap("count", 0));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("a"))).isEqualTo("a 1");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("b"))).isEqualTo("b 1");
+	}
+
+	@Test
+	public void namesAssignedByScriptAreNotVisibleOnNextMessage() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "try:\n    seen = previous\nexcept NameError:\n    seen = 'none'\n"
+			+ "previous = payload\nresult = seen", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file), null,
+			new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("a"))).isEqualTo("none");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("b"))).isEqualTo("none");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("c"), Collections.singletonMap("previous",
+			"bound"))).isEqualTo("bound");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("d"))).isEqualTo("none");
+	}
+
+	@Test
+	public void customVariableGenerator() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "result = payload + suffix", StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file),
+			new DefaultScriptVariableGenerator(Collections.singletonMap("suffix", "!")));
+		jythonScriptExecutor.afterPropertiesSet();
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("hello!");
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"),
+			Collections.singletonMap("suffix", "?"))).isEqualTo("hello?");
+	}
+
+	@Test
+	public void binary() throws Exception {
+		File file = folder.newFile("script.py");
+		FileUtils.writeStringToFile(file, "if payload[0] == '{':\n    result = payload\n"
+			+ "elif len(payload) > 3:\n    result = payload[1:3]\nelse:\n    result = bytearray(payload.tobytes().upper())",
+			StandardCharsets.UTF_8);
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file));
+		jythonScriptExecutor.setBinary(true);
+		jythonScriptExecutor.afterPropertiesSet();
+		byte[] json = "{}".getBytes(StandardCharsets.UTF_8);
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<>(json))).isSameAs(json);
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<>("abcd".getBytes(StandardCharsets.UTF_8))))
+			.isEqualTo("bc".getBytes(StandardCharsets.UTF_8));
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<>("abc".getBytes(StandardCharsets.UTF_8))))
+			.isEqualTo("ABC".getBytes(StandardCharsets.UTF_8));
+
+		FileUtils.writeStringToFile(file, "payload[0] = 'x'", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		jythonScriptExecutor.refresh();
+		assertThatThrownBy(() -> jythonScriptExecutor.execute(new GenericMessage<>(json)))
+			.isInstanceOf(PyException.class);
+		assertThat(new String(json, StandardCharsets.UTF_8)).isEqualTo("{}");
+
+		FileUtils.writeStringToFile(file, "import sys\nif not hasattr(sys, 'kept'):\n    sys.kept = bytearray('ab')\n"
+			+ "else:\n    sys.kept[0] = ord('x')\nresult = sys.kept", StandardCharsets.UTF_8);
+		file.setLastModified(file.lastModified() + 1000);
+		jythonScriptExecutor.refresh();
+		Object kept = jythonScriptExecutor.execute(new GenericMessage<>(json));
+		assertThat(jythonScriptExecutor.execute(new GenericMessage<>(json)))
+			.isEqualTo("xb".getBytes(StandardCharsets.UTF_8));
+		assertThat(kept).isEqualTo("ab".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void bytecodeCache() throws Exception {
+		File scripts = folder.newFolder("scripts");
+		FileUtils.writeStringToFile(new File(scripts, "cached_helper.py"), "def shout(s):\n    return s.upper() + '!'",
+			StandardCharsets.UTF_8);
+		File file = new File(scripts, "shout.py");
+		FileUtils.writeStringToFile(file, String.format("import sys%n" +
+			"if '%1$s' not in sys.path:%n" +
+			"    sys.path.append('%1$s')%n" +
+			"import cached_helper%n" +
+			"result = cached_helper.shout(payload)", scripts.getAbsolutePath()), StandardCharsets.UTF_8);
+		File cacheDir = folder.newFolder("cache");
+		PySystemState systemState = Py.getSystemState();
+		int pathHooks = systemState.path_hooks.__len__();
+
+		JythonScriptExecutor jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file), null,
+			new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1),
+			new JythonBytecodeCache(cacheDir));
+		try {
+			assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("hello"))).isEqualTo("HELLO!");
+		}
+		finally {
+			jythonScriptExecutor.destroy();
+			forget("cached_helper", scripts);
+		}
+		assertThat(systemState.path_hooks.__len__()).isEqualTo(pathHooks);
+		File[] cached = cacheDir.listFiles();
+		assertThat(cached).hasSize(2);
+
+		// replace the cached bytecode of the module, so the next run shows whether it was loaded from the cache
+		File helper = Arrays.stream(cached).filter(bytecode -> contains(bytecode, "cached_helper$py")).findFirst()
+			.get();
+		FileUtils.writeByteArrayToFile(helper, imp.compileSource("cached_helper",
+			new ByteArrayInputStream("def shout(s):\n    return s.lower() + '!'".getBytes(StandardCharsets.UTF_8)),
+			"cached_helper.py"));
+
+		jythonScriptExecutor = new JythonScriptExecutor(new FileSystemResource(file), null,
+			new JythonInterpreterPool(1, JythonInterpreterPool.ExhaustedPolicy.BLOCK, -1),
+			new JythonBytecodeCache(cacheDir));
+		try {
+			assertThat(jythonScriptExecutor.execute(new GenericMessage<String>("WORLD"))).isEqualTo("world!");
+		}
+		finally {
+			jythonScriptExecutor.destroy();
+			forget("cached_helper", scripts);
+		}
+		assertThat(cacheDir.listFiles()).hasSize(2);
+	}
+
+	@Test
+	public void bytecodeCacheEvictsLeastRecentlyUsed() throws Exception {
+		File cacheDir = folder.newFolder("cache");
+		JythonBytecodeCache bytecodeCache = new JythonBytecodeCache(cacheDir, 2);
+		bytecodeCache.compile("a", "a = 1".getBytes(StandardCharsets.UTF_8), "a.py");
+		File a = cacheDir.listFiles()[0];
+		assertThat(a.setLastModified(1000)).isTrue();
+		bytecodeCache.compile("b", "b = 1".getBytes(StandardCharsets.UTF_8), "b.py");
+		File b = Arrays.stream(cacheDir.listFiles()).filter(file -> !file.equals(a)).findFirst().get();
+		assertThat(b.setLastModified(2000)).isTrue();
+
+		bytecodeCache.compile("a", "a = 1".getBytes(StandardCharsets.UTF_8), "a.py");
+		assertThat(a.lastModified()).isGreaterThan(2000);
+		bytecodeCache.compile("c", "c = 1".getBytes(StandardCharsets.UTF_8), "c.py");
+		assertThat(cacheDir.listFiles()).hasSize(2);
+		assertThat(a).exists();
+		assertThat(b).doesNotExist();
+	}
+
+	/*
+	 * Removes a module imported by a test, and the directory it added to the path, from the JVM-wide system state.
+	 */
+	private static void forget(String module, File directory) {
+		PySystemState systemState = Py.getSystemState();
+		if (systemState.modules.__finditem__(module) != null) {
+			systemState.modules.__delitem__(module);
+		}
+		PyString entry = new PyString(directory.getAbsolutePath());
+		if (systemState.path.__contains__(entry)) {
+			systemState.path.remove(entry);
+		}
+	}
+
+	private static boolean contains(File file, String text) {
+		try {
+			return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1).contains(text);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	@Test
 	@Ignore
 	public void scriptSource() throws Exception {
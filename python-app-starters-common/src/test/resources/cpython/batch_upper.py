@@ -0,0 +1 @@
+results = [payload.upper() + headers[i]['suffix'] for i, payload in enumerate(payloads)]
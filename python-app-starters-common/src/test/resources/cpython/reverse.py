@@ -0,0 +1,6 @@
+import os
+
+if payload == b'crash':
+    os._exit(1)
+
+result = payload[::-1]
@@ -0,0 +1 @@
+results = [payload[::-1] for payload in payloads]
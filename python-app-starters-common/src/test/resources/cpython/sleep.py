@@ -0,0 +1,6 @@
+import time
+
+if payload == b'hang':
+    time.sleep(60)
+
+result = payload
@@ -0,0 +1,6 @@
+calls = []
+
+
+def process(payload, headers):
+    calls.append(payload)
+    return '%s %d' % (payload.upper(), len(calls))
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Sends a request for each message without waiting for the response. Once {@code maxInFlight} requests are in flight,
+ * the consumer thread waits for one of them to complete, so the backlog is held by the binder rather than in memory.
+ * Each response is passed to the post-processing function on a scheduler thread, never on the thread of the HTTP
+ * client, and the result sent to the output channel. A failed request is sent to the error channel.
+ * <p>
+ * If ordered, the results are sent in the order the messages arrived, each one held until the results of all the
+ * earlier messages have been sent or have failed.
+ **/
+public class AsyncHttpRequestHandler extends AbstractMessageProducingHandler implements DisposableBean {
+
+	private final Function<Message<?>, Mono<Object>> httpRequest;
+
+	private final Function<Message<?>, Message<?>> postProcess;
+
+	private final Semaphore inFlight;
+
+	private final boolean ordered;
+
+	private final Queue<Slot> pending = new ArrayDeque<>();
+
+	private final Scheduler scheduler = Schedulers.newElastic("python-http");
+
+	private boolean draining;
+
+	public AsyncHttpRequestHandler(Function<Message<?>, Mono<Object>> httpRequest,
+		Function<Message<?>, Message<?>> postProcess, int maxInFlight, boolean ordered) {
+		Assert.isTrue(maxInFlight > 0, "'maxInFlight' must be greater than 0");
+		this.httpRequest = httpRequest;
+		this.postProcess = postProcess;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.ordered = ordered;
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		try {
+			this.inFlight.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted waiting to send the HTTP request", e);
+		}
+		Mono<Object> response;
+		try {
+			response = this.httpRequest.apply(message);
+		}
+		catch (RuntimeException e) {
+			this.inFlight.release();
+			throw e;
+		}
+		Slot slot = new Slot(message);
+		if (this.ordered) {
+			synchronized (this.pending) {
+				this.pending.add(slot);
+			}
+		}
+		response.publishOn(this.scheduler)
+			.map(result -> this.postProcess.apply(MessageBuilder.withPayload(result)
+				.copyHeaders(message.getHeaders())
+				.build()))
+			.toFuture()
+			.whenComplete((result, ex) -> complete(slot, result, ex));
+	}
+
+	@Override
+	public void destroy() {
+		this.scheduler.dispose();
+	}
+
+	private void complete(Slot slot, Message<?> result, Throwable ex) {
+		if (!this.ordered) {
+			send(slot.request, result, ex);
+			return;
+		}
+		synchronized (this.pending) {
+			slot.result = result;
+			slot.exception = ex;
+			slot.done = true;
+			if (this.draining) {
+				return;
+			}
+			this.draining = true;
+		}
+		drain();
+	}
+
+	/*
+	 * Sends the completed results at the head of the queue, one thread at a time. A slot is only marked done while
+	 * holding the lock, so a result completed after the drainer finds the head not done is drained by its own thread.
+	 */
+	private void drain() {
+		while (true) {
+			Slot slot;
+			synchronized (this.pending) {
+				slot = this.pending.peek();
+				if (slot == null || !slot.done) {
+					this.draining = false;
+					return;
+				}
+				this.pending.remove();
+			}
+			send(slot.request, slot.result, slot.exception);
+		}
+	}
+
+	private void send(Message<?> request, Message<?> result, Throwable ex) {
+		try {
+			if (ex != null) {
+				sendErrorMessage(request, ex);
+			}
+			else if (result != null) {
+				sendOutputs(result, request);
+			}
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to send the result of the HTTP request", e);
+		}
+		finally {
+			this.inFlight.release();
+		}
+	}
+
+	private static class Slot {
+
+		private final Message<?> request;
+
+		private Message<?> result;
+
+		private Throwable exception;
+
+		private boolean done;
+
+		Slot(Message<?> request) {
+			this.request = request;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorProperties;
+import org.springframework.http.RequestEntity;
+import org.springframework.messaging.Message;
+
+/**
+ * Sends the request for a message and waits for the reply, for the modes that block: with the httpclient processor's
+ * function, through the {@link HttpResponseCache} and {@link RequestCoalescer} if there are any. If a non-blocking
+ * function is set, because the cache reads the response headers that the httpclient processor does not return, the
+ * request is sent with it instead and the calling thread waits for the reply. Each request that is sent goes through
+ * the {@link HttpRequestGuard}, if there is one.
+ **/
+public class BlockingHttpRequestFunction implements Function<Message<?>, Object> {
+
+	private final HttpclientProcessorProperties properties;
+
+	private final Function<Message<?>, Object> httpRequest;
+
+	private HttpResponseCache responseCache;
+
+	private RequestCoalescer<Object> requestCoalescer;
+
+	private ReactiveHttpRequestFunction reactiveHttpRequest;
+
+	private HttpRequestGuard requestGuard;
+
+	public BlockingHttpRequestFunction(HttpclientProcessorProperties properties,
+		Function<Message<?>, Object> httpRequest) {
+		this.properties = properties;
+		this.httpRequest = httpRequest;
+	}
+
+	public void setResponseCache(HttpResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	public void setRequestCoalescer(RequestCoalescer<Object> requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	public void setReactiveHttpRequest(ReactiveHttpRequestFunction reactiveHttpRequest) {
+		this.reactiveHttpRequest = reactiveHttpRequest;
+	}
+
+	public void setRequestGuard(HttpRequestGuard requestGuard) {
+		this.requestGuard = requestGuard;
+	}
+
+	@Override
+	public Object apply(Message<?> message) {
+		if (this.reactiveHttpRequest != null) {
+			return this.reactiveHttpRequest.apply(message).block();
+		}
+		if (this.responseCache == null) {
+			return send(message, null);
+		}
+		Object key = this.responseCache.key(message);
+		HttpResponseCache.CachedReply cached = this.responseCache.get(key);
+		if (cached != null) {
+			return cached.getReply();
+		}
+		return send(message, key);
+	}
+
+	private Object send(Message<?> message, Object cacheKey) {
+		if (this.requestCoalescer == null) {
+			return sendAndCache(message, cacheKey);
+		}
+		RequestEntity<?> request = HttpRequests.create(this.properties, message);
+		// only the request that is sent caches the reply, not those that share it
+		Supplier<Object> call = () -> sendAndCache(message, cacheKey);
+		if (this.requestGuard == null) {
+			return HttpRequests.copyReply(this.requestCoalescer.coalesce(request, call));
+		}
+		// a request sharing the reply of one in flight waits no longer than its own timeout or deadline
+		return HttpRequests.copyReply(this.requestCoalescer.coalesce(request, call,
+			this.requestGuard.timeout(message), e -> this.requestGuard.timedOut(message, e)));
+	}
+
+	private Object sendAndCache(Message<?> message, Object cacheKey) {
+		Object reply = guardedRequest(message);
+		if (this.responseCache != null) {
+			this.responseCache.put(cacheKey, reply, null);
+		}
+		return reply;
+	}
+
+	private Object guardedRequest(Message<?> message) {
+		return this.requestGuard != null
+			? this.requestGuard.call(message, HttpRequests.method(this.properties, message), this.httpRequest)
+			: this.httpRequest.apply(message);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.integration.aggregator.MessageCountReleaseStrategy;
+import org.springframework.integration.dsl.AggregatorSpec;
+import org.springframework.integration.splitter.AbstractMessageSplitter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * A splitter that sends one HTTP request for a batch of messages. The aggregator configured by
+ * {@link #bulkAggregator(PythonHttpProcessorProperties)} releases each batch as one message whose payload is the list
+ * of messages, so the request is sent once the aggregator has let go of the group, and other messages can be
+ * aggregated meanwhile. The input side of the wrapper script combines the payloads into the body of the bulk request
+ * and the output side splits the reply into one result per message. Each result is sent with the headers of the
+ * message it belongs to, in order.
+ * <p>
+ * Without a wrapper script, the body is the list of payloads and the reply must be a list or array with one element
+ * per message.
+ **/
+public class BulkHttpRequestProcessor extends AbstractMessageSplitter {
+
+	private final AbstractPythonScriptExecutor wrapper;
+
+	private final Function<Message<?>, Object> httpRequest;
+
+	private final Map<String, Object> inputVariables;
+
+	private final Map<String, Object> outputVariables;
+
+	private final String[] inputTags;
+
+	private final String[] outputTags;
+
+	/**
+	 * @param wrapper the wrapper script executor, or null.
+	 * @param httpRequest sends a request and returns the reply.
+	 * @param inputVariables additional bind variables for the input side.
+	 * @param inputTags additional metric tags for the input side.
+	 * @param outputVariables additional bind variables for the output side.
+	 * @param outputTags additional metric tags for the output side.
+	 */
+	public BulkHttpRequestProcessor(AbstractPythonScriptExecutor wrapper, Function<Message<?>, Object> httpRequest,
+		Map<String, Object> inputVariables, String[] inputTags, Map<String, Object> outputVariables,
+		String[] outputTags) {
+		this.wrapper = wrapper;
+		this.httpRequest = httpRequest;
+		this.inputVariables = inputVariables;
+		this.inputTags = inputTags;
+		this.outputVariables = outputVariables;
+		this.outputTags = outputTags;
+		setApplySequence(false);
+	}
+
+	/*
+	 * The request is evaluated against a message with the bulk body and the headers of the first message.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Object splitMessage(Message<?> batch) {
+		List<Message<?>> messages = (List<Message<?>>) batch.getPayload();
+		Object body = this.wrapper != null
+			? this.wrapper.executeBulk(messages, this.inputVariables, this.inputTags)
+			: payloads(messages);
+		Message<?> request = MessageBuilder.withPayload(body).copyHeaders(messages.get(0).getHeaders()).build();
+		Object reply = this.httpRequest.apply(request);
+		List<?> results = this.wrapper != null
+			? this.wrapper.executeSplit(reply, messages, this.outputVariables, this.outputTags)
+			: split(reply, request, messages.size());
+		List<Message<?>> replies = new ArrayList<>(results.size());
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) != null) {
+				replies.add(MessageBuilder.withPayload(results.get(i)).copyHeaders(messages.get(i).getHeaders())
+					.build());
+			}
+		}
+		return replies;
+	}
+
+	/**
+	 * Configure an aggregator that collects up to {@code bulkSize} messages, or whatever arrived within
+	 * {@code bulkTimeout} milliseconds, and releases them as one message for a bulk processor.
+	 * @param properties the python-http properties.
+	 * @return the aggregator configurer.
+	 */
+	public static Consumer<AggregatorSpec> bulkAggregator(PythonHttpProcessorProperties properties) {
+		return aggregator -> aggregator.correlationStrategy(message -> BulkHttpRequestProcessor.class.getName())
+			.releaseStrategy(new MessageCountReleaseStrategy(properties.getBulkSize()))
+			.outputProcessor(group -> MessageBuilder.withPayload(new ArrayList<>(group.getMessages())).build())
+			.groupTimeout(properties.getBulkTimeout())
+			.sendPartialResultOnExpiry(true)
+			.expireGroupsUponCompletion(true)
+			.expireGroupsUponTimeout(true);
+	}
+
+	private static List<Object> payloads(List<Message<?>> messages) {
+		List<Object> payloads = new ArrayList<>(messages.size());
+		for (Message<?> message : messages) {
+			payloads.add(message.getPayload());
+		}
+		return payloads;
+	}
+
+	private static List<?> split(Object reply, Message<?> request, int size) {
+		List<?> results = null;
+		if (reply instanceof List) {
+			results = (List<?>) reply;
+		}
+		else if (reply instanceof Collection) {
+			results = new ArrayList<>((Collection<?>) reply);
+		}
+		else if (reply instanceof Object[]) {
+			results = Arrays.asList((Object[]) reply);
+		}
+		if (results == null || results.size() != size) {
+			throw new MessageHandlingException(request, String.format(
+				"The reply to a bulk request of %d messages must be a list of %d results, not %s", size, size,
+				ObjectUtils.nullSafeClassName(reply)));
+		}
+		return results;
+	}
+}
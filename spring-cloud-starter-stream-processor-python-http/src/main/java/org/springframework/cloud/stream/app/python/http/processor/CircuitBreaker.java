@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * Fails calls fast once too many of the recent ones failed or were slow. The outcomes of the last {@code windowSize}
+ * calls are kept; once the window is full and the percentage of failed or slow calls reaches the threshold, the
+ * circuit opens and calls are rejected. After {@code waitDuration} milliseconds, a single trial call is let through:
+ * the circuit closes if it succeeds in time and opens again otherwise.
+ * <p>
+ * Each permitted call gets a permit, which it reports its outcome with. Outcomes of calls permitted before the state
+ * last changed are ignored, so a slow call made while the circuit was closed cannot decide a trial.
+ **/
+public class CircuitBreaker {
+
+	/**
+	 * The permit returned when a call is rejected.
+	 */
+	public static final long REJECTED = -1;
+
+	public enum State {
+		/**
+		 * Calls are permitted and their outcomes recorded.
+		 */
+		CLOSED,
+		/**
+		 * Calls are rejected.
+		 */
+		OPEN,
+		/**
+		 * A single trial call is permitted.
+		 */
+		HALF_OPEN
+	}
+
+	private final boolean[] window;
+
+	private final double failureRateThreshold;
+
+	private final long slowCallDuration;
+
+	private final long waitDuration;
+
+	private State state = State.CLOSED;
+
+	private int count;
+
+	private int next;
+
+	private int failures;
+
+	private long openedAt;
+
+	private boolean trialInFlight;
+
+	private long generation;
+
+	/**
+	 * @param windowSize the number of recent calls to consider.
+	 * @param failureRateThreshold the percentage of failed or slow calls at which the circuit opens.
+	 * @param slowCallDuration the duration (in milliseconds) above which a successful call counts as failed, or 0 if
+	 * calls are never too slow.
+	 * @param waitDuration the time (in milliseconds) the circuit stays open before a trial call.
+	 */
+	public CircuitBreaker(int windowSize, double failureRateThreshold, long slowCallDuration, long waitDuration) {
+		Assert.isTrue(windowSize > 0, "'windowSize' must be greater than 0");
+		this.window = new boolean[windowSize];
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallDuration = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+		this.waitDuration = TimeUnit.MILLISECONDS.toNanos(waitDuration);
+	}
+
+	/**
+	 * @return the permit for a call that may be made now, whose outcome must then be reported with it, or
+	 * {@link #REJECTED}.
+	 */
+	public synchronized long tryAcquire() {
+		if (this.state == State.OPEN) {
+			if (System.nanoTime() - this.openedAt < this.waitDuration) {
+				return REJECTED;
+			}
+			transition(State.HALF_OPEN);
+			this.trialInFlight = false;
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (this.trialInFlight) {
+				return REJECTED;
+			}
+			this.trialInFlight = true;
+		}
+		return this.generation;
+	}
+
+	/**
+	 * @param permit the permit of the call.
+	 * @param latency the duration of the call, in nanoseconds.
+	 */
+	public synchronized void onSuccess(long permit, long latency) {
+		record(permit, this.slowCallDuration > 0 && latency > this.slowCallDuration);
+	}
+
+	/**
+	 * @param permit the permit of the call.
+	 */
+	public synchronized void onFailure(long permit) {
+		record(permit, true);
+	}
+
+	/**
+	 * Report that a permitted call was abandoned without an outcome.
+	 * @param permit the permit of the call.
+	 */
+	public synchronized void release(long permit) {
+		if (this.state == State.HALF_OPEN && permit == this.generation) {
+			this.trialInFlight = false;
+		}
+	}
+
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	private void record(long permit, boolean failed) {
+		if (permit != this.generation || this.state == State.OPEN) {
+			return;
+		}
+		if (this.state == State.HALF_OPEN) {
+			if (failed) {
+				open();
+			}
+			else {
+				transition(State.CLOSED);
+				reset();
+			}
+			return;
+		}
+		if (this.count == this.window.length) {
+			if (this.window[this.next]) {
+				this.failures--;
+			}
+		}
+		else {
+			this.count++;
+		}
+		this.window[this.next] = failed;
+		if (failed) {
+			this.failures++;
+		}
+		this.next = (this.next + 1) % this.window.length;
+		if (this.count == this.window.length && this.failures * 100.0 / this.count >= this.failureRateThreshold) {
+			open();
+		}
+	}
+
+	private void open() {
+		transition(State.OPEN);
+		this.openedAt = System.nanoTime();
+		this.trialInFlight = false;
+		reset();
+	}
+
+	private void transition(State state) {
+		this.state = state;
+		this.generation++;
+	}
+
+	private void reset() {
+		this.count = 0;
+		this.next = 0;
+		this.failures = 0;
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpMethod;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Guards the HTTP request for a message with a timeout, hedging and a circuit breaker, each of which is optional.
+ * <ul>
+ * <li>The request fails once the timeout has elapsed, or the deadline given by the deadline header has passed,
+ * whichever comes first. The deadline is in milliseconds since the epoch, so it can be propagated from upstream. A
+ * deadline header that is not a number is ignored.</li>
+ * <li>If a hedge percentile is set, a second, identical request is sent once the request has taken as long as that
+ * percentile of the latencies of recent successful requests, and the first to complete wins. Only GET, HEAD, OPTIONS,
+ * PUT and DELETE requests, which are idempotent, are hedged.</li>
+ * <li>While the {@link CircuitBreaker} is open, requests fail fast with a {@link CircuitBreakerOpenException}.</li>
+ * </ul>
+ * Blocking requests are sent on a thread of the guard if they need a timeout or hedging, so the calling thread can
+ * stop waiting for them. Once it does, the requests still running are interrupted. There are at most
+ * {@code maxThreads} such threads; a request that finds them all busy fails without being sent, and a hedge is then
+ * not sent.
+ **/
+public class HttpRequestGuard implements DisposableBean {
+
+	/**
+	 * Counter of hedged requests, sent because the first one was slow.
+	 */
+	public static final String HEDGES = "http.hedges";
+
+	/**
+	 * Counter of requests that were not sent because the circuit breaker was open.
+	 */
+	public static final String REJECTED = "http.circuit-breaker.rejected";
+
+	/**
+	 * Counter of requests that failed because their timeout or deadline passed.
+	 */
+	public static final String TIMEOUTS = "http.timeouts";
+
+	private static final Set<HttpMethod> IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD,
+		HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE);
+
+	private static final int DEFAULT_MAX_THREADS = 128;
+
+	private final static Log logger = LogFactory.getLog(HttpRequestGuard.class);
+
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, DEFAULT_MAX_THREADS, 60, TimeUnit.SECONDS,
+		new SynchronousQueue<>(), new CustomizableThreadFactory("python-http-guard-"),
+		new ThreadPoolExecutor.AbortPolicy());
+
+	private long timeout;
+
+	private String deadlineHeader;
+
+	private Latencies latencies;
+
+	private CircuitBreaker circuitBreaker;
+
+	private Counter hedges;
+
+	private Counter rejected;
+
+	private Counter timeouts;
+
+	/**
+	 * @param timeout the timeout (in milliseconds) of each request, or 0 for none.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+
+	/**
+	 * @param deadlineHeader the name of a header holding the time, in milliseconds since the epoch, by which the
+	 * request must complete.
+	 */
+	public void setDeadlineHeader(String deadlineHeader) {
+		this.deadlineHeader = deadlineHeader;
+	}
+
+	/**
+	 * @param hedgePercentile the percentile, between 0 and 100, of the recent latencies after which a request is
+	 * hedged, or 0 for no hedging.
+	 */
+	public void setHedgePercentile(double hedgePercentile) {
+		this.latencies = hedgePercentile > 0 ? new Latencies(hedgePercentile) : null;
+	}
+
+	/**
+	 * @param maxThreads the maximum number of threads on which blocking requests are sent, default 128.
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.executor.setMaximumPoolSize(maxThreads);
+	}
+
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public void setMeterRegistry(MeterRegistry registry) {
+		if (registry == null) {
+			return;
+		}
+		this.hedges = registry.counter(HEDGES);
+		this.rejected = registry.counter(REJECTED);
+		this.timeouts = registry.counter(TIMEOUTS);
+		if (this.circuitBreaker != null) {
+			registry.gauge("http.circuit-breaker.state", this.circuitBreaker,
+				circuitBreaker -> circuitBreaker.getState().ordinal());
+		}
+	}
+
+	/**
+	 * @param message the message.
+	 * @param method the HTTP method of the request, which decides whether it may be hedged.
+	 * @param request sends the request for the message and waits for the reply.
+	 * @return the reply.
+	 */
+	public Object call(Message<?> message, HttpMethod method, Function<Message<?>, Object> request) {
+		long timeout = timeout(message);
+		long permit = acquire(message);
+		long start = System.nanoTime();
+		try {
+			long hedgeDelay = hedgeDelay(method);
+			Object reply = timeout == 0 && hedgeDelay == 0
+				? request.apply(message)
+				: callOnGuardThreads(message, request, timeout, hedgeDelay);
+			succeeded(permit, System.nanoTime() - start);
+			return reply;
+		}
+		catch (RejectedExecutionException e) {
+			if (this.circuitBreaker != null) {
+				this.circuitBreaker.release(permit);
+			}
+			throw new MessageHandlingException(message, String.format(
+				"All %d guard threads are busy; the HTTP request was not sent", this.executor.getMaximumPoolSize()), e);
+		}
+		catch (RuntimeException e) {
+			failed(permit);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param message the message.
+	 * @param method the HTTP method of the request, which decides whether it may be hedged.
+	 * @param request sends the request for the message when subscribed to; called again to hedge.
+	 * @param <T> the type of the reply.
+	 * @return the reply, when subscribed to.
+	 */
+	public <T> Mono<T> guard(Message<?> message, HttpMethod method, Supplier<Mono<T>> request) {
+		return Mono.defer(() -> {
+			long timeout = timeout(message);
+			long permit = acquire(message);
+			long start = System.nanoTime();
+			Mono<T> reply = request.get();
+			long hedgeDelay = hedgeDelay(method);
+			if (hedgeDelay > 0 && (timeout == 0 || hedgeDelay < timeout)) {
+				reply = Mono.first(reply, Mono.delay(Duration.ofNanos(hedgeDelay))
+					.then(Mono.defer(() -> {
+						count(this.hedges);
+						return request.get();
+					})));
+			}
+			if (timeout > 0) {
+				reply = reply.timeout(Duration.ofNanos(timeout))
+					.onErrorMap(TimeoutException.class, e -> timedOut(message, e));
+			}
+			return reply.doOnSuccess(value -> succeeded(permit, System.nanoTime() - start))
+				.doOnError(e -> failed(permit))
+				.doFinally(signal -> {
+					if (signal == SignalType.CANCEL && this.circuitBreaker != null) {
+						this.circuitBreaker.release(permit);
+					}
+				});
+		});
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/*
+	 * Throws RejectedExecutionException if the request cannot be sent because all the guard threads are busy.
+	 */
+	private Object callOnGuardThreads(Message<?> message, Function<Message<?>, Object> request, long timeout,
+		long hedgeDelay) {
+		CompletableFuture<Object> reply = new CompletableFuture<>();
+		Runnable attempt = () -> {
+			try {
+				reply.complete(request.apply(message));
+			}
+			catch (RuntimeException e) {
+				reply.completeExceptionally(e);
+			}
+		};
+		List<Future<?>> attempts = new ArrayList<>(2);
+		attempts.add(this.executor.submit(attempt));
+		try {
+			long remaining = timeout;
+			if (hedgeDelay > 0 && (timeout == 0 || hedgeDelay < timeout)) {
+				try {
+					return reply.get(hedgeDelay, TimeUnit.NANOSECONDS);
+				}
+				catch (TimeoutException e) {
+					hedge(attempt, attempts);
+					remaining = timeout == 0 ? 0 : timeout - hedgeDelay;
+				}
+			}
+			return remaining == 0 ? reply.get() : reply.get(remaining, TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {
+			throw timedOut(message, e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException && !(e.getCause() instanceof RejectedExecutionException)) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new MessageHandlingException(message, "HTTP request failed", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted waiting for the HTTP response", e);
+		}
+		finally {
+			// the attempt that lost, or both if the caller stopped waiting
+			for (Future<?> sent : attempts) {
+				sent.cancel(true);
+			}
+		}
+	}
+
+	private void hedge(Runnable attempt, List<Future<?>> attempts) {
+		try {
+			attempts.add(this.executor.submit(attempt));
+			count(this.hedges);
+		}
+		catch (RejectedExecutionException e) {
+			logger.debug("Not hedging the HTTP request: all the guard threads are busy");
+		}
+	}
+
+	/*
+	 * The time left for the request, in nanoseconds, or 0 if it has no timeout.
+	 */
+	long timeout(Message<?> message) {
+		long timeout = this.timeout;
+		Object deadline = this.deadlineHeader != null ? message.getHeaders().get(this.deadlineHeader) : null;
+		Long deadlineMillis = deadline != null ? deadlineMillis(deadline) : null;
+		if (deadlineMillis != null) {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis());
+			if (remaining <= 0) {
+				throw timedOut(message, null);
+			}
+			timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+		}
+		return timeout;
+	}
+
+	private Long deadlineMillis(Object deadline) {
+		if (deadline instanceof Number) {
+			return ((Number) deadline).longValue();
+		}
+		try {
+			return Long.parseLong(deadline.toString().trim());
+		}
+		catch (NumberFormatException e) {
+			logger.warn(String.format("Ignoring the '%s' header, which is not a time in milliseconds: '%s'",
+				this.deadlineHeader, deadline));
+			return null;
+		}
+	}
+
+	private long hedgeDelay(HttpMethod method) {
+		return this.latencies != null && IDEMPOTENT_METHODS.contains(method) ? this.latencies.percentile() : 0;
+	}
+
+	/*
+	 * The permit of the circuit breaker, if there is one.
+	 */
+	private long acquire(Message<?> message) {
+		if (this.circuitBreaker == null) {
+			return 0;
+		}
+		long permit = this.circuitBreaker.tryAcquire();
+		if (permit == CircuitBreaker.REJECTED) {
+			count(this.rejected);
+			throw new CircuitBreakerOpenException(message);
+		}
+		return permit;
+	}
+
+	private void succeeded(long permit, long latency) {
+		if (this.latencies != null) {
+			this.latencies.record(latency);
+		}
+		if (this.circuitBreaker != null) {
+			this.circuitBreaker.onSuccess(permit, latency);
+		}
+	}
+
+	private void failed(long permit) {
+		if (this.circuitBreaker != null) {
+			this.circuitBreaker.onFailure(permit);
+		}
+	}
+
+	MessageHandlingException timedOut(Message<?> message, Throwable cause) {
+		count(this.timeouts);
+		return new MessageHandlingException(message, "The HTTP request did not complete before its deadline", cause);
+	}
+
+	private static void count(Counter counter) {
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * The latencies of the last successful requests, and a percentile of them, recomputed every
+	 * {@value #UPDATE_INTERVAL} requests. There is no percentile, so no hedging, until {@value #MIN_SAMPLES} have been
+	 * recorded.
+	 */
+	private static class Latencies {
+
+		private static final int SIZE = 1000;
+
+		private static final int MIN_SAMPLES = 100;
+
+		private static final int UPDATE_INTERVAL = 100;
+
+		private final long[] samples = new long[SIZE];
+
+		private final double percentile;
+
+		private int count;
+
+		private int next;
+
+		private volatile long value;
+
+		Latencies(double percentile) {
+			this.percentile = percentile;
+		}
+
+		synchronized void record(long latency) {
+			this.samples[this.next] = latency;
+			this.next = (this.next + 1) % SIZE;
+			if (this.count < SIZE) {
+				this.count++;
+			}
+			if (this.count >= MIN_SAMPLES && this.next % UPDATE_INTERVAL == 0) {
+				long[] sorted = Arrays.copyOf(this.samples, this.count);
+				Arrays.sort(sorted);
+				int index = (int) Math.ceil(this.percentile / 100 * this.count) - 1;
+				this.value = sorted[Math.max(0, Math.min(index, this.count - 1))];
+			}
+		}
+
+		long percentile() {
+			return this.value;
+		}
+	}
+}
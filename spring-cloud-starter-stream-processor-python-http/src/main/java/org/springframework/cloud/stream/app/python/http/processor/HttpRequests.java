@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Map;
+
+import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.RequestEntity;
+import org.springframework.messaging.Message;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * Builds the request for a message from the httpclient properties, as the httpclient processor does: the URL, method
+ * and headers from their expressions, and the body from the static body, the body expression or the payload. Also
+ * copies replies that are shared by several messages.
+ **/
+abstract class HttpRequests {
+
+	static RequestEntity<?> create(HttpclientProcessorProperties properties, Message<?> message) {
+		HttpHeaders headers = new HttpHeaders();
+		if (properties.getHeadersExpression() != null) {
+			Map<?, ?> headersMap = properties.getHeadersExpression().getValue(message, Map.class);
+			if (headersMap != null) {
+				for (Map.Entry<?, ?> header : headersMap.entrySet()) {
+					if (header.getKey() != null && header.getValue() != null) {
+						headers.add(header.getKey().toString(), header.getValue().toString());
+					}
+				}
+			}
+		}
+		Object body;
+		if (properties.getBody() != null) {
+			body = properties.getBody();
+		}
+		else if (properties.getBodyExpression() != null) {
+			body = properties.getBodyExpression().getValue(message);
+		}
+		else {
+			body = message.getPayload();
+		}
+		URI uri = URI.create(properties.getUrlExpression().getValue(message, String.class));
+		return new RequestEntity<>(body, headers, method(properties, message), uri);
+	}
+
+	static HttpMethod method(HttpclientProcessorProperties properties, Message<?> message) {
+		HttpMethod method = properties.getHttpMethod();
+		if (properties.getHttpMethodExpression() != null) {
+			method = properties.getHttpMethodExpression().getValue(message, HttpMethod.class);
+		}
+		return method != null ? method : HttpMethod.GET;
+	}
+
+	static Class<?> responseType(HttpclientProcessorProperties properties) {
+		return properties.getExpectedResponseType() != null ? properties.getExpectedResponseType() : String.class;
+	}
+
+	/*
+	 * Strings, numbers and other immutable values are shared. Byte arrays and serializable values, such as the maps
+	 * and lists of a JSON reply, are copied.
+	 */
+	static Object copyReply(Object reply) {
+		if (reply == null || reply instanceof String || reply instanceof Number || reply instanceof Boolean) {
+			return reply;
+		}
+		if (reply instanceof byte[]) {
+			return ((byte[]) reply).clone();
+		}
+		if (reply instanceof Serializable) {
+			return SerializationUtils.deserialize(SerializationUtils.serialize(reply));
+		}
+		return reply;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * An in-memory cache of replies, keyed by the pre-processed message. The least recently used reply is evicted once
+ * {@code maxSize} are cached, and a reply expires {@code ttl} milliseconds after the response arrived.
+ * <p>
+ * If the Cache-Control header of the response is honored, a response with 'no-store', 'no-cache' or 'private' is not
+ * cached, and one with a shorter 'max-age' or 's-maxage' than the TTL expires sooner. A reply is copied once, when it
+ * is cached, and then shared by every message that hits it: the maps and lists of a JSON reply are read-only, and a
+ * byte array is the only reply that each message gets its own copy of.
+ **/
+public class HttpResponseCache {
+
+	/**
+	 * Counter of lookups, tagged with 'result', either 'hit' or 'miss'.
+	 */
+	public static final String GETS = "http.cache.gets";
+
+	/**
+	 * Counter of replies evicted to make room for others.
+	 */
+	public static final String EVICTIONS = "http.cache.evictions";
+
+	/**
+	 * Gauge of the number of cached replies.
+	 */
+	public static final String SIZE = "http.cache.size";
+
+	private final Function<Message<?>, Object> keyFunction;
+
+	private final int maxSize;
+
+	private final long ttl;
+
+	private final Map<Object, CachedReply> entries;
+
+	private boolean cacheControl;
+
+	private Counter hits;
+
+	private Counter misses;
+
+	private Counter evictions;
+
+	public HttpResponseCache(Function<Message<?>, Object> keyFunction, int maxSize, long ttl) {
+		Assert.isTrue(maxSize > 0, "'maxSize' must be greater than 0");
+		this.keyFunction = keyFunction;
+		this.maxSize = maxSize;
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.entries = new LinkedHashMap<Object, CachedReply>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CachedReply> eldest) {
+				if (size() <= HttpResponseCache.this.maxSize) {
+					return false;
+				}
+				if (HttpResponseCache.this.evictions != null) {
+					HttpResponseCache.this.evictions.increment();
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @param cacheControl true to honor the Cache-Control header of responses.
+	 */
+	public void setCacheControl(boolean cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
+	public void setMeterRegistry(MeterRegistry registry) {
+		if (registry == null) {
+			return;
+		}
+		this.hits = registry.counter(GETS, "result", "hit");
+		this.misses = registry.counter(GETS, "result", "miss");
+		this.evictions = registry.counter(EVICTIONS);
+		registry.gauge(SIZE, this, HttpResponseCache::size);
+	}
+
+	/**
+	 * @param message the pre-processed message.
+	 * @return its cache key.
+	 */
+	public Object key(Message<?> message) {
+		return this.keyFunction.apply(message);
+	}
+
+	/**
+	 * @param key the cache key.
+	 * @return the cached reply, or null if there is none or it has expired.
+	 */
+	public CachedReply get(Object key) {
+		CachedReply entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+			if (entry != null && entry.expires - System.nanoTime() <= 0) {
+				this.entries.remove(key);
+				entry = null;
+			}
+		}
+		count(entry != null ? this.hits : this.misses);
+		return entry;
+	}
+
+	/**
+	 * Cache a reply, unless the response headers say it must not be.
+	 * @param key the cache key.
+	 * @param reply the reply, which may be null.
+	 * @param headers the response headers, or null if they are not known.
+	 */
+	public void put(Object key, Object reply, HttpHeaders headers) {
+		long ttl = ttl(headers);
+		if (ttl <= 0) {
+			return;
+		}
+		CachedReply entry = new CachedReply(immutable(reply), System.nanoTime() + ttl);
+		synchronized (this.entries) {
+			this.entries.put(key, entry);
+		}
+	}
+
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	private long ttl(HttpHeaders headers) {
+		if (!this.cacheControl || headers == null || !StringUtils.hasText(headers.getCacheControl())) {
+			return this.ttl;
+		}
+		long ttl = this.ttl;
+		for (String directive : StringUtils.commaDelimitedListToStringArray(headers.getCacheControl())) {
+			String[] nameAndValue = directive.trim().toLowerCase().split("=", 2);
+			switch (nameAndValue[0]) {
+			case "no-store":
+			case "no-cache":
+			case "private":
+				return 0;
+			case "max-age":
+			case "s-maxage":
+				if (nameAndValue.length == 2) {
+					try {
+						ttl = Math.min(ttl, TimeUnit.SECONDS.toNanos(Long.parseLong(nameAndValue[1].trim())));
+					}
+					catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+				break;
+			default:
+			}
+		}
+		return ttl;
+	}
+
+	/*
+	 * Maps and lists, such as those of a JSON reply, are copied into unmodifiable ones and byte arrays are copied.
+	 * Strings and numbers are immutable already, and other values are shared as they are.
+	 */
+	private static Object immutable(Object reply) {
+		if (reply instanceof Map) {
+			Map<Object, Object> map = new LinkedHashMap<>();
+			((Map<?, ?>) reply).forEach((key, value) -> map.put(key, immutable(value)));
+			return Collections.unmodifiableMap(map);
+		}
+		if (reply instanceof List) {
+			List<Object> list = new ArrayList<>(((List<?>) reply).size());
+			for (Object item : (List<?>) reply) {
+				list.add(immutable(item));
+			}
+			return Collections.unmodifiableList(list);
+		}
+		if (reply instanceof byte[]) {
+			return ((byte[]) reply).clone();
+		}
+		return reply;
+	}
+
+	private static void count(Counter counter) {
+		if (counter != null) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * A cached reply.
+	 */
+	public static final class CachedReply {
+
+		private final Object reply;
+
+		private final long expires;
+
+		private CachedReply(Object reply, long expires) {
+			this.reply = reply;
+			this.expires = expires;
+		}
+
+		/**
+		 * @return the reply, which is read-only, or a copy of it if it is a byte array.
+		 */
+		public Object getReply() {
+			return this.reply instanceof byte[] ? ((byte[]) this.reply).clone() : this.reply;
+		}
+	}
+}
@@ -16,24 +16,39 @@
 
 package org.springframework.cloud.stream.app.python.http.processor;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 import java.util.function.Function;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorFunction;
 import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorFunctionConfiguration;
-import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorProperties;
+import org.springframework.cloud.stream.app.python.jython.JythonBatchProcessor;
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptWarmUp;
 import org.springframework.cloud.stream.app.python.wrapper.JythonWrapperConfiguration;
+import org.springframework.cloud.stream.app.python.wrapper.JythonWrapperProperties;
 import org.springframework.cloud.stream.messaging.Processor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.expression.Expression;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlows;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.client.WebClient;
 
 /**
  * @author David Turanski
@@ -41,15 +56,29 @@ import org.springframework.messaging.support.MessageBuilder;
 @Configuration
 @Import({ JythonWrapperConfiguration.class, HttpclientProcessorFunctionConfiguration.class })
 @EnableBinding(Processor.class)
+@EnableConfigurationProperties(PythonHttpProcessorProperties.class)
 public class PythonHttpProcessorConfiguration {
 
+	/*
+	 * The variables and metric tags for each side, created once rather than for every message.
+	 */
+	private static final Map<String, Object> INPUT_VARIABLES = Collections.singletonMap("channel", Processor.INPUT);
+
+	private static final Map<String, Object> OUTPUT_VARIABLES = Collections.singletonMap("channel", Processor.OUTPUT);
+
+	private static final String[] INPUT_TAGS = { "channel", Processor.INPUT };
+
+	private static final String[] OUTPUT_TAGS = { "channel", Processor.OUTPUT };
+
 	@Autowired(required = false)
-	private JythonScriptExecutor jythonWrapper;
+	private AbstractPythonScriptExecutor jythonWrapper;
 
 	@Bean
+	@ConditionalOnExpression("('${wrapper.script:}' == '' or ${wrapper.batch-size:1} <= 1) "
+		+ "and '${http.mode:SYNC}'.equalsIgnoreCase('SYNC')")
 	IntegrationFlow pythonHttpFlow(Processor processor,
 		Function<Message<?>, Message<?>> preProcess,
-		HttpclientProcessorFunction httpRequest,
+		BlockingHttpRequestFunction httpRequest,
 		Function<Message<?>, Message<?>> postProcess) {
 		return IntegrationFlows.from(processor.input())
 			.transform(Message.class, preProcess::apply)
@@ -60,24 +89,223 @@ public class PythonHttpProcessorConfiguration {
 
 	}
 
+	/*
+	 * Sends the requests without blocking the consumer thread, up to the in-flight limit. The handler runs the output
+	 * side of the wrapper script when each response arrives.
+	 */
+	@Bean
+	@ConditionalOnExpression("('${wrapper.script:}' == '' or ${wrapper.batch-size:1} <= 1) "
+		+ "and '${http.mode:SYNC}'.equalsIgnoreCase('ASYNC')")
+	IntegrationFlow pythonHttpAsyncFlow(Processor processor,
+		Function<Message<?>, Message<?>> preProcess,
+		AsyncHttpRequestHandler asyncHttpRequestHandler) {
+		return IntegrationFlows.from(processor.input())
+			.transform(Message.class, preProcess::apply)
+			.handle(asyncHttpRequestHandler)
+			.channel(processor.output())
+			.get();
+	}
+
+	@Bean
+	@ConditionalOnExpression("'${http.mode:SYNC}'.equalsIgnoreCase('ASYNC')")
+	AsyncHttpRequestHandler asyncHttpRequestHandler(PythonHttpProcessorProperties properties,
+		ReactiveHttpRequestFunction reactiveHttpRequest,
+		Function<Message<?>, Message<?>> postProcess) {
+		return new AsyncHttpRequestHandler(reactiveHttpRequest, postProcess, properties.getMaxInFlight(),
+			properties.isOrdered());
+	}
+
+	/*
+	 * Sends requests with the non-blocking client, in ASYNC mode or to read the Cache-Control header of responses.
+	 */
+	@Bean
+	@ConditionalOnExpression("'${http.mode:SYNC}'.equalsIgnoreCase('ASYNC') "
+		+ "or (${http.cache-size:0} > 0 and ${http.cache-control:false})")
+	ReactiveHttpRequestFunction reactiveHttpRequest(HttpclientProcessorProperties httpclientProperties,
+		PythonHttpProcessorProperties properties, ObjectProvider<WebClient.Builder> webClientBuilder,
+		ObjectProvider<HttpResponseCache> responseCache, ObjectProvider<HttpRequestGuard> requestGuard,
+		ObjectProvider<MeterRegistry> meterRegistry) {
+		WebClient webClient = webClientBuilder.getIfAvailable(WebClient::builder).build();
+		ReactiveHttpRequestFunction reactiveHttpRequest = new ReactiveHttpRequestFunction(httpclientProperties,
+			webClient);
+		reactiveHttpRequest.setResponseCache(responseCache.getIfAvailable());
+		reactiveHttpRequest.setRequestGuard(requestGuard.getIfAvailable());
+		if (properties.isCoalesce()) {
+			reactiveHttpRequest.setRequestCoalescer(requestCoalescer(meterRegistry));
+		}
+		return reactiveHttpRequest;
+	}
+
+	/*
+	 * The request for the modes that wait for the response. If the Cache-Control header is honored, the request is
+	 * sent with the non-blocking client, which caches and coalesces it itself.
+	 */
+	@Bean
+	BlockingHttpRequestFunction blockingHttpRequest(HttpclientProcessorProperties httpclientProperties,
+		PythonHttpProcessorProperties properties, HttpclientProcessorFunction httpRequest,
+		ObjectProvider<HttpResponseCache> responseCache, ObjectProvider<HttpRequestGuard> requestGuard,
+		ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<ReactiveHttpRequestFunction> reactiveHttpRequest) {
+		BlockingHttpRequestFunction blockingHttpRequest = new BlockingHttpRequestFunction(httpclientProperties,
+			httpRequest::apply);
+		blockingHttpRequest.setResponseCache(responseCache.getIfAvailable());
+		blockingHttpRequest.setRequestGuard(requestGuard.getIfAvailable());
+		if (properties.isCoalesce()) {
+			blockingHttpRequest.setRequestCoalescer(requestCoalescer(meterRegistry));
+		}
+		if (properties.getMode() != PythonHttpProcessorProperties.Mode.ASYNC) {
+			blockingHttpRequest.setReactiveHttpRequest(reactiveHttpRequest.getIfAvailable());
+		}
+		return blockingHttpRequest;
+	}
+
+	@Bean
+	@ConditionalOnExpression("${http.cache-size:0} > 0")
+	HttpResponseCache httpResponseCache(HttpclientProcessorProperties httpclientProperties,
+		PythonHttpProcessorProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+		Expression keyExpression = properties.getCacheKeyExpression();
+		HttpResponseCache responseCache = new HttpResponseCache(keyExpression != null
+			? keyExpression::getValue
+			: message -> HttpRequests.create(httpclientProperties, message),
+			properties.getCacheSize(), properties.getCacheTtl());
+		responseCache.setCacheControl(properties.isCacheControl());
+		responseCache.setMeterRegistry(meterRegistry.getIfAvailable());
+		return responseCache;
+	}
+
+	/*
+	 * Applies the timeout, deadline header, hedging and circuit breaker, whichever are configured, to each request that
+	 * is sent. Blocking requests wait on up to twice 'http.max-in-flight' threads, for the request and its hedge.
+	 */
+	@Bean
+	@ConditionalOnExpression("${http.timeout:0} > 0 or '${http.deadline-header:}' != '' "
+		+ "or ${http.hedge-percentile:0} > 0 or ${http.circuit-breaker-failure-rate:0} > 0")
+	HttpRequestGuard httpRequestGuard(PythonHttpProcessorProperties properties,
+		ObjectProvider<MeterRegistry> meterRegistry) {
+		HttpRequestGuard requestGuard = new HttpRequestGuard();
+		requestGuard.setTimeout(properties.getTimeout());
+		requestGuard.setDeadlineHeader(properties.getDeadlineHeader());
+		requestGuard.setHedgePercentile(properties.getHedgePercentile());
+		requestGuard.setMaxThreads(2 * properties.getMaxInFlight());
+		if (properties.getCircuitBreakerFailureRate() > 0) {
+			requestGuard.setCircuitBreaker(new CircuitBreaker(properties.getCircuitBreakerWindow(),
+				properties.getCircuitBreakerFailureRate(), properties.getCircuitBreakerSlowCall(),
+				properties.getCircuitBreakerWait()));
+		}
+		requestGuard.setMeterRegistry(meterRegistry.getIfAvailable());
+		return requestGuard;
+	}
+
+	/*
+	 * Runs the whole chain for each message on a pool of threads, releasing the consumer thread.
+	 */
+	@Bean
+	@ConditionalOnExpression("('${wrapper.script:}' == '' or ${wrapper.batch-size:1} <= 1) "
+		+ "and '${http.mode:SYNC}'.equalsIgnoreCase('THREADS')")
+	IntegrationFlow pythonHttpThreadsFlow(Processor processor,
+		ThreadPoolHttpRequestHandler threadPoolHttpRequestHandler) {
+		return IntegrationFlows.from(processor.input())
+			.handle(threadPoolHttpRequestHandler)
+			.channel(processor.output())
+			.get();
+	}
+
+	@Bean
+	@ConditionalOnExpression("'${http.mode:SYNC}'.equalsIgnoreCase('THREADS')")
+	ThreadPoolHttpRequestHandler threadPoolHttpRequestHandler(PythonHttpProcessorProperties properties,
+		Function<Message<?>, Message<?>> preProcess,
+		BlockingHttpRequestFunction httpRequest,
+		Function<Message<?>, Message<?>> postProcess) {
+		ThreadPoolHttpRequestHandler handler = new ThreadPoolHttpRequestHandler(message -> {
+			Message<?> request = preProcess.apply(message);
+			Object response = httpRequest.apply(request);
+			return response == null ? null
+				: postProcess.apply(MessageBuilder.withPayload(response).copyHeaders(request.getHeaders()).build());
+		}, properties.getMaxInFlight());
+		handler.setOrderKeyExpression(properties.getOrderKeyExpression());
+		return handler;
+	}
+
+	/*
+	 * Runs the wrapper script once per batch on each side of the HTTP stage. The released input side messages carry
+	 * sequence details, so the output side can reassemble the same batch.
+	 */
+	@Bean
+	@ConditionalOnExpression("'${wrapper.script:}' != '' and ${wrapper.batch-size:1} > 1 "
+		+ "and !'${http.mode:SYNC}'.equalsIgnoreCase('BULK')")
+	IntegrationFlow pythonHttpBatchFlow(Processor processor, BlockingHttpRequestFunction httpRequest,
+		JythonWrapperProperties properties, PythonHttpProcessorProperties httpProperties,
+		@Qualifier(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME) MessageChannel errorChannel) {
+		Assert.state(httpProperties.getMode() == PythonHttpProcessorProperties.Mode.SYNC, String.format(
+			"'http.mode=%s' cannot be combined with 'wrapper.batch-size' greater than 1", httpProperties.getMode()));
+		JythonBatchProcessor preProcess = new JythonBatchProcessor(jythonWrapper, INPUT_VARIABLES, INPUT_TAGS);
+		preProcess.setPushSequenceDetails(true);
+		preProcess.setErrorChannel(errorChannel);
+		JythonBatchProcessor postProcess = new JythonBatchProcessor(jythonWrapper, OUTPUT_VARIABLES, OUTPUT_TAGS);
+		postProcess.setPopSequenceDetails(true);
+		postProcess.setErrorChannel(errorChannel);
+		return IntegrationFlows.from(processor.input())
+			.aggregate(JythonBatchProcessor.batchAggregator(properties, preProcess))
+			.transform(Message.class, httpRequest::apply)
+			.aggregate(JythonBatchProcessor.batchAggregator(properties, postProcess, null))
+			.channel(processor.output())
+			.get();
+	}
+
+	/*
+	 * Sends one request for each batch of messages. The wrapper script builds the body from the batch on the input side
+	 * and splits the reply into a result per message on the output side.
+	 */
+	@Bean
+	@ConditionalOnExpression("'${http.mode:SYNC}'.equalsIgnoreCase('BULK')")
+	IntegrationFlow pythonHttpBulkFlow(Processor processor, BlockingHttpRequestFunction httpRequest,
+		PythonHttpProcessorProperties properties) {
+		BulkHttpRequestProcessor bulkProcessor = new BulkHttpRequestProcessor(jythonWrapper, httpRequest,
+			INPUT_VARIABLES, INPUT_TAGS, OUTPUT_VARIABLES, OUTPUT_TAGS);
+		return IntegrationFlows.from(processor.input())
+			.aggregate(BulkHttpRequestProcessor.bulkAggregator(properties))
+			.split(bulkProcessor)
+			.channel(processor.output())
+			.get();
+	}
+
+	/*
+	 * Warms up the wrapper script for both channels, with the same sample payloads.
+	 */
+	@Bean
+	@ConditionalOnExpression("'${wrapper.script:}' != '' and ${wrapper.warmup-iterations:0} > 0")
+	public ScriptWarmUp jythonWrapperWarmUp(JythonWrapperProperties properties,
+		ObjectProvider<MeterRegistry> meterRegistry) {
+		ScriptWarmUp warmUp = new ScriptWarmUp(jythonWrapper, properties.getWarmupPayloads(),
+			properties.getWarmupIterations());
+		warmUp.addVariables(INPUT_VARIABLES, INPUT_TAGS);
+		warmUp.addVariables(OUTPUT_VARIABLES, OUTPUT_TAGS);
+		warmUp.setBatchSize(properties.getBatchSize());
+		warmUp.setMeterRegistry(meterRegistry.getIfAvailable());
+		return warmUp;
+	}
+
 	@Bean
 	public Function<Message<?>, Message<?>> preProcess() {
-		return message -> applyJythonWrapper(message, Processor.INPUT);
+		return message -> applyJythonWrapper(message, INPUT_VARIABLES, INPUT_TAGS);
 	}
 
 	@Bean
 	public Function<Message<?>, Message<?>> postProcess() {
-		return message -> applyJythonWrapper(message, Processor.OUTPUT);
+		return message -> applyJythonWrapper(message, OUTPUT_VARIABLES, OUTPUT_TAGS);
+	}
+
+	private static <T> RequestCoalescer<T> requestCoalescer(ObjectProvider<MeterRegistry> meterRegistry) {
+		RequestCoalescer<T> requestCoalescer = new RequestCoalescer<>();
+		requestCoalescer.setMeterRegistry(meterRegistry.getIfAvailable());
+		return requestCoalescer;
 	}
 
-	private Message<?> applyJythonWrapper(Message<?> message, String channelName) {
+	private Message<?> applyJythonWrapper(Message<?> message, Map<String, Object> variables, String[] tags) {
 		if (jythonWrapper == null) {
 			return message;
 		}
 
-		Map<String, Object> channel = new HashMap<>();
-		channel.put("channel", channelName);
-		Object result = jythonWrapper.execute(message, channel);
+		Object result = jythonWrapper.execute(message, variables, tags);
 		return (MessageBuilder.createMessage(result, message.getHeaders()));
 	}
 }
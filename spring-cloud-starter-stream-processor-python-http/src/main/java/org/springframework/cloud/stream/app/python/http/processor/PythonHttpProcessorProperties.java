@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.expression.Expression;
+
+/**
+ * Configuration properties for the HTTP stage of the python-http processor.
+ **/
+@ConfigurationProperties(prefix = "http")
+public class PythonHttpProcessorProperties {
+
+	public static enum Mode {
+		/**
+		 * Send each request from the consumer thread and wait for the response.
+		 */
+		SYNC,
+		/**
+		 * Send requests with a non-blocking client and release the consumer thread while they are in flight.
+		 */
+		ASYNC,
+		/**
+		 * Run the wrapper script and send the request for each message on a pool of threads, releasing the consumer
+		 * thread.
+		 */
+		THREADS,
+		/**
+		 * Send one request for a batch of messages, built and split by the wrapper script.
+		 */
+		BULK
+	}
+
+	/**
+	 * How requests are sent.
+	 */
+	private Mode mode = Mode.SYNC;
+
+	/**
+	 * The maximum number of requests in flight at once, in ASYNC mode, or the number of threads, in THREADS mode. The
+	 * consumer waits for one to complete before sending another. Blocking requests with a timeout or hedging are sent
+	 * on at most twice as many threads.
+	 */
+	private int maxInFlight = 64;
+
+	/**
+	 * Flag to indicate that the output messages should be sent in the order of the input messages, in ASYNC mode.
+	 * Otherwise, they are sent as responses arrive.
+	 */
+	private boolean ordered;
+
+	/**
+	 * A SpEL expression for a key, such as the partition, of each message, in THREADS mode. Messages with the same key
+	 * are processed one at a time, in order. If not set, messages are processed in any order.
+	 */
+	private Expression orderKeyExpression;
+
+	/**
+	 * The maximum number of replies to cache, keyed by the pre-processed message. Default 0, no cache.
+	 */
+	private int cacheSize = 0;
+
+	/**
+	 * Time (in milliseconds) after which a cached reply expires.
+	 */
+	private long cacheTtl = 60000;
+
+	/**
+	 * A SpEL expression against the pre-processed message for the cache key. Defaults to the request: the method, URL,
+	 * headers and body.
+	 */
+	private Expression cacheKeyExpression;
+
+	/**
+	 * Flag to indicate that the Cache-Control header of responses should be honored: responses with 'no-store',
+	 * 'no-cache' or 'private' are not cached, and 'max-age' shortens the TTL. Requests are then sent with the
+	 * non-blocking client in every mode.
+	 */
+	private boolean cacheControl;
+
+	/**
+	 * Flag to indicate that concurrent identical requests should share one call. Each message gets its own copy of
+	 * the reply.
+	 */
+	private boolean coalesce;
+
+	/**
+	 * The maximum number of messages sent in one request, in BULK mode.
+	 */
+	private int bulkSize = 100;
+
+	/**
+	 * Maximum time (in milliseconds) to wait for a bulk request to fill before sending a partial one, in BULK mode.
+	 */
+	private long bulkTimeout = 1000;
+
+	/**
+	 * Time (in milliseconds) after which a request fails. Default 0, no timeout.
+	 */
+	private long timeout = 0;
+
+	/**
+	 * The name of a header holding the time, in milliseconds since the epoch, by which the request must complete.
+	 * Messages whose deadline has passed fail without a request being sent. A value that is not a number is ignored.
+	 */
+	private String deadlineHeader;
+
+	/**
+	 * The percentile (between 0 and 100) of the latency of recent requests after which a second, identical request is
+	 * sent, and the first response used. Only GET, HEAD, OPTIONS, PUT and DELETE requests are hedged. Default 0, no
+	 * hedging.
+	 */
+	private double hedgePercentile = 0;
+
+	/**
+	 * The percentage of failed or slow requests, among the last 'circuit-breaker-window', at which requests fail fast
+	 * without being sent. Default 0, no circuit breaker.
+	 */
+	private double circuitBreakerFailureRate = 0;
+
+	/**
+	 * Time (in milliseconds) above which a request counts as failed for the circuit breaker. Default 0, never.
+	 */
+	private long circuitBreakerSlowCall = 0;
+
+	/**
+	 * The number of recent requests the circuit breaker considers.
+	 */
+	private int circuitBreakerWindow = 100;
+
+	/**
+	 * Time (in milliseconds) the circuit breaker stays open before letting a trial request through.
+	 */
+	private long circuitBreakerWait = 30000;
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	public Expression getOrderKeyExpression() {
+		return orderKeyExpression;
+	}
+
+	public void setOrderKeyExpression(Expression orderKeyExpression) {
+		this.orderKeyExpression = orderKeyExpression;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+
+	public Expression getCacheKeyExpression() {
+		return cacheKeyExpression;
+	}
+
+	public void setCacheKeyExpression(Expression cacheKeyExpression) {
+		this.cacheKeyExpression = cacheKeyExpression;
+	}
+
+	public boolean isCacheControl() {
+		return cacheControl;
+	}
+
+	public void setCacheControl(boolean cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+	public int getBulkSize() {
+		return bulkSize;
+	}
+
+	public void setBulkSize(int bulkSize) {
+		this.bulkSize = bulkSize;
+	}
+
+	public long getBulkTimeout() {
+		return bulkTimeout;
+	}
+
+	public void setBulkTimeout(long bulkTimeout) {
+		this.bulkTimeout = bulkTimeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public String getDeadlineHeader() {
+		return deadlineHeader;
+	}
+
+	public void setDeadlineHeader(String deadlineHeader) {
+		this.deadlineHeader = deadlineHeader;
+	}
+
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	public void setHedgePercentile(double hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public double getCircuitBreakerFailureRate() {
+		return circuitBreakerFailureRate;
+	}
+
+	public void setCircuitBreakerFailureRate(double circuitBreakerFailureRate) {
+		this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+	}
+
+	public long getCircuitBreakerSlowCall() {
+		return circuitBreakerSlowCall;
+	}
+
+	public void setCircuitBreakerSlowCall(long circuitBreakerSlowCall) {
+		this.circuitBreakerSlowCall = circuitBreakerSlowCall;
+	}
+
+	public int getCircuitBreakerWindow() {
+		return circuitBreakerWindow;
+	}
+
+	public void setCircuitBreakerWindow(int circuitBreakerWindow) {
+		this.circuitBreakerWindow = circuitBreakerWindow;
+	}
+
+	public long getCircuitBreakerWait() {
+		return circuitBreakerWait;
+	}
+
+	public void setCircuitBreakerWait(long circuitBreakerWait) {
+		this.circuitBreakerWait = circuitBreakerWait;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorProperties;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Sends the request for a message with a non-blocking {@link WebClient} and applies the reply expression to the
+ * response, like {@code HttpclientProcessorFunction} but without blocking the calling thread. The returned Mono is
+ * empty if the reply is null and fails with a {@link WebClientResponseException} for a 4xx or 5xx status.
+ * <p>
+ * With a {@link HttpResponseCache}, a cached reply is returned without sending the request, and the reply to a request
+ * that is sent is cached along with the response headers.
+ * <p>
+ * With a {@link RequestCoalescer}, a request identical to one in flight shares its response, waiting for it no longer
+ * than the timeout or deadline the {@link HttpRequestGuard} would give it.
+ * <p>
+ * With a {@link HttpRequestGuard}, each request that is sent is subject to its timeout, hedging and circuit breaker.
+ **/
+public class ReactiveHttpRequestFunction implements Function<Message<?>, Mono<Object>> {
+
+	private final HttpclientProcessorProperties properties;
+
+	private final WebClient webClient;
+
+	private HttpResponseCache responseCache;
+
+	private RequestCoalescer<ResponseEntity<?>> requestCoalescer;
+
+	private HttpRequestGuard requestGuard;
+
+	public ReactiveHttpRequestFunction(HttpclientProcessorProperties properties, WebClient webClient) {
+		this.properties = properties;
+		this.webClient = webClient;
+	}
+
+	public void setResponseCache(HttpResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * @param requestCoalescer shares the response among concurrent identical requests, each of which then gets its own
+	 * copy of the reply.
+	 */
+	public void setRequestCoalescer(RequestCoalescer<ResponseEntity<?>> requestCoalescer) {
+		this.requestCoalescer = requestCoalescer;
+	}
+
+	public void setRequestGuard(HttpRequestGuard requestGuard) {
+		this.requestGuard = requestGuard;
+	}
+
+	@Override
+	public Mono<Object> apply(Message<?> message) {
+		Object key = null;
+		if (this.responseCache != null) {
+			key = this.responseCache.key(message);
+			HttpResponseCache.CachedReply cached = this.responseCache.get(key);
+			if (cached != null) {
+				return Mono.justOrEmpty(cached.getReply());
+			}
+		}
+		Object cacheKey = key;
+		RequestEntity<?> request = HttpRequests.create(this.properties, message);
+		AtomicBoolean sent = new AtomicBoolean();
+		Supplier<Mono<ResponseEntity<?>>> exchange = () -> {
+			sent.set(true);
+			return guardedExchange(message, request);
+		};
+		Mono<ResponseEntity<?>> response = this.requestCoalescer != null
+			? coalesce(message, request, exchange)
+			: exchange.get();
+		return response.flatMap(entity -> {
+			Object reply = reply(entity);
+			// only the request that is sent caches the reply, not those that share its response
+			if (this.responseCache != null && sent.get()) {
+				this.responseCache.put(cacheKey, reply, entity.getHeaders());
+			}
+			return Mono.justOrEmpty(this.requestCoalescer != null ? HttpRequests.copyReply(reply) : reply);
+		});
+	}
+
+	private Mono<ResponseEntity<?>> coalesce(Message<?> message, RequestEntity<?> request,
+		Supplier<Mono<ResponseEntity<?>>> exchange) {
+		if (this.requestGuard == null) {
+			return this.requestCoalescer.coalesceAsync(request, exchange);
+		}
+		// a request sharing the response of one in flight waits no longer than its own timeout or deadline
+		return Mono.defer(() -> this.requestCoalescer.coalesceAsync(request, exchange,
+			this.requestGuard.timeout(message), e -> this.requestGuard.timedOut(message, e)));
+	}
+
+	private Object reply(ResponseEntity<?> response) {
+		return this.properties.getReplyExpression().getValue(response);
+	}
+
+	private Mono<ResponseEntity<?>> guardedExchange(Message<?> message, RequestEntity<?> request) {
+		return this.requestGuard != null
+			? this.requestGuard.guard(message, request.getMethod(), () -> exchange(request))
+			: exchange(request);
+	}
+
+	Mono<ResponseEntity<?>> exchange(RequestEntity<?> request) {
+		WebClient.RequestBodySpec spec = this.webClient.method(request.getMethod())
+			.uri(request.getUrl())
+			.headers(headers -> headers.addAll(request.getHeaders()));
+		if (request.getBody() != null) {
+			spec.syncBody(request.getBody());
+		}
+		Class<?> responseType = HttpRequests.responseType(this.properties);
+		return spec.exchange().flatMap(response -> {
+			if (response.statusCode().isError()) {
+				return response.bodyToMono(byte[].class)
+					.defaultIfEmpty(new byte[0])
+					.flatMap(body -> Mono.error(responseException(response, body)));
+			}
+			return response.toEntity(responseType);
+		});
+	}
+
+	private static WebClientResponseException responseException(ClientResponse response, byte[] body) {
+		Charset charset = response.headers().contentType()
+			.map(MediaType::getCharset)
+			.orElse(StandardCharsets.ISO_8859_1);
+		return WebClientResponseException.create(response.rawStatusCode(), response.statusCode().getReasonPhrase(),
+			response.headers().asHttpHeaders(), body, charset);
+	}
+}
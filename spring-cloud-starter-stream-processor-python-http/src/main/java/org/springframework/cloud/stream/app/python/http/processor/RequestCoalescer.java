@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Shares one call among concurrent identical requests. The first request for a key is sent, and any request for the
+ * same key made before it completes waits for the same result, or failure, instead of being sent. Once it completes,
+ * the next request for the key is sent again.
+ * <p>
+ * A request that shares a call waits no longer than its own timeout, if it is given one. If the request that is sent
+ * is cancelled, or ends without completing, the requests waiting for it are not failed: one of them is sent instead and
+ * the others wait for that one.
+ *
+ * @param <T> the type of the result.
+ **/
+public class RequestCoalescer<T> {
+
+	/**
+	 * Counter of requests that shared the call of an identical request in flight.
+	 */
+	public static final String COALESCED = "http.coalesced";
+
+	private final ConcurrentMap<Object, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+	private Counter coalesced;
+
+	public void setMeterRegistry(MeterRegistry registry) {
+		if (registry != null) {
+			this.coalesced = registry.counter(COALESCED);
+		}
+	}
+
+	/**
+	 * @param key identifies identical requests.
+	 * @param request sends the request, blocking until it completes.
+	 * @return the result of this request, or of the identical one in flight.
+	 */
+	public T coalesce(Object key, Supplier<T> request) {
+		return coalesce(key, request, 0, null);
+	}
+
+	/**
+	 * @param key identifies identical requests.
+	 * @param request sends the request, blocking until it completes.
+	 * @param timeout how long (in nanoseconds) to wait for an identical request in flight, or 0 for no limit.
+	 * @param timedOut creates the exception thrown when the timeout elapses, from its cause.
+	 * @return the result of this request, or of the identical one in flight.
+	 */
+	public T coalesce(Object key, Supplier<T> request, long timeout,
+		Function<Throwable, ? extends RuntimeException> timedOut) {
+		long deadline = System.nanoTime() + timeout;
+		while (true) {
+			CompletableFuture<T> flight = new CompletableFuture<>();
+			CompletableFuture<T> existing = this.inFlight.putIfAbsent(key, flight);
+			if (existing == null) {
+				return send(key, flight, request);
+			}
+			count();
+			try {
+				return timeout == 0 ? existing.get()
+					: existing.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof Abandoned) {
+					continue;
+				}
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new CompletionException(e.getCause());
+			}
+			catch (TimeoutException e) {
+				throw timedOut.apply(e);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+		}
+	}
+
+	/**
+	 * @param key identifies identical requests.
+	 * @param request sends the request when subscribed to.
+	 * @return the result of this request, or of the identical one in flight, when subscribed to.
+	 */
+	public Mono<T> coalesceAsync(Object key, Supplier<Mono<T>> request) {
+		return coalesceAsync(key, request, 0, null);
+	}
+
+	/**
+	 * @param key identifies identical requests.
+	 * @param request sends the request when subscribed to.
+	 * @param timeout how long (in nanoseconds) to wait for an identical request in flight, or 0 for no limit.
+	 * @param timedOut creates the error signalled when the timeout elapses, from its cause.
+	 * @return the result of this request, or of the identical one in flight, when subscribed to.
+	 */
+	public Mono<T> coalesceAsync(Object key, Supplier<Mono<T>> request, long timeout,
+		Function<Throwable, ? extends RuntimeException> timedOut) {
+		return Mono.defer(() -> coalesceAsync(key, request, timeout == 0 ? null : System.nanoTime() + timeout,
+			timedOut));
+	}
+
+	private T send(Object key, CompletableFuture<T> flight, Supplier<T> request) {
+		try {
+			T result = request.get();
+			flight.complete(result);
+			return result;
+		}
+		catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			this.inFlight.remove(key, flight);
+			// a no-op unless the request threw an Error; the requests waiting for it are then sent themselves
+			flight.completeExceptionally(Abandoned.INSTANCE);
+		}
+	}
+
+	/*
+	 * The deadline is in System.nanoTime() terms, or null for none.
+	 */
+	private Mono<T> coalesceAsync(Object key, Supplier<Mono<T>> request, Long deadline,
+		Function<Throwable, ? extends RuntimeException> timedOut) {
+		CompletableFuture<T> flight = new CompletableFuture<>();
+		CompletableFuture<T> existing = this.inFlight.putIfAbsent(key, flight);
+		if (existing != null) {
+			count();
+			Mono<T> shared = Mono.fromFuture(existing);
+			if (deadline != null) {
+				shared = shared.timeout(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))
+					.onErrorMap(TimeoutException.class, timedOut);
+			}
+			return shared.onErrorResume(Abandoned.class, e -> coalesceAsync(key, request, deadline, timedOut));
+		}
+		// the key is removed before the result is published, so a request made once it completes is sent again
+		return request.get()
+			.doOnSuccess(result -> {
+				this.inFlight.remove(key, flight);
+				flight.complete(result);
+			})
+			.doOnError(e -> {
+				this.inFlight.remove(key, flight);
+				flight.completeExceptionally(e);
+			})
+			.doFinally(signal -> {
+				this.inFlight.remove(key, flight);
+				// cancelled; the requests waiting for this one are sent instead
+				flight.completeExceptionally(Abandoned.INSTANCE);
+			});
+	}
+
+	private void count() {
+		if (this.coalesced != null) {
+			this.coalesced.increment();
+		}
+	}
+
+	/**
+	 * Completes a call that ended without a result or failure that its waiting requests could share.
+	 */
+	private static final class Abandoned extends RuntimeException {
+
+		private static final Abandoned INSTANCE = new Abandoned();
+
+		private Abandoned() {
+			super("The shared request was abandoned", null, false, false);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.Expression;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Runs the whole chain for each message, the input side of the wrapper script, the HTTP request and the output side,
+ * on a pool of {@code concurrency} threads, so the consumer thread is free to take the next message while the request
+ * is in flight. Once all the threads are busy, the consumer waits for one of them. An interpreter is only taken from
+ * the pool while the script runs, not while the request is in flight, so the script never runs on more interpreters
+ * than the pool holds. A failed chain is sent to the error channel.
+ * <p>
+ * If an order key expression is set, the messages with the same key, e.g. the same partition, run one at a time in the
+ * order they arrived, and messages with different keys run concurrently.
+ **/
+public class ThreadPoolHttpRequestHandler extends AbstractMessageProducingHandler implements DisposableBean {
+
+	private final Function<Message<?>, Message<?>> chain;
+
+	private final Semaphore running;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Map<Object, CompletableFuture<Void>> lastByKey = new ConcurrentHashMap<>();
+
+	private Expression orderKeyExpression;
+
+	public ThreadPoolHttpRequestHandler(Function<Message<?>, Message<?>> chain, int concurrency) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		this.chain = chain;
+		this.running = new Semaphore(concurrency);
+		this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), new CustomizableThreadFactory("python-http-"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @param orderKeyExpression evaluated against each message for a key, such as its partition. Messages with the
+	 * same key are processed in order.
+	 */
+	public void setOrderKeyExpression(Expression orderKeyExpression) {
+		this.orderKeyExpression = orderKeyExpression;
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		Object key = this.orderKeyExpression != null ? this.orderKeyExpression.getValue(message) : null;
+		try {
+			this.running.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageHandlingException(message, "Interrupted waiting to process the message", e);
+		}
+		Runnable task = () -> process(message);
+		if (key == null) {
+			this.executor.execute(task);
+			return;
+		}
+		/*
+		 * Chains the message after the last one with the same key. Each permit is held by a task that is running or
+		 * waits for an earlier one, so the earliest can always run.
+		 */
+		CompletableFuture<Void> last = this.lastByKey.compute(key, (k, previous) -> previous == null
+			? CompletableFuture.runAsync(task, this.executor)
+			: previous.thenRunAsync(task, this.executor));
+		last.whenComplete((result, ex) -> this.lastByKey.remove(key, last));
+	}
+
+	@Override
+	public void destroy() {
+		this.executor.shutdown();
+	}
+
+	private void process(Message<?> message) {
+		try {
+			Message<?> result = this.chain.apply(message);
+			if (result != null) {
+				sendOutputs(result, message);
+			}
+		}
+		catch (RuntimeException e) {
+			try {
+				sendErrorMessage(message, e);
+			}
+			catch (RuntimeException ex) {
+				logger.error("Failed to send the error for the message", ex);
+			}
+		}
+		finally {
+			this.running.release();
+		}
+	}
+}
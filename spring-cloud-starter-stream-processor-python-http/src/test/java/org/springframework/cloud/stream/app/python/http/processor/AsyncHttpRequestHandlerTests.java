@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncHttpRequestHandlerTests {
+
+	private final QueueChannel output = new QueueChannel();
+
+	private final QueueChannel errors = new QueueChannel();
+
+	private AsyncHttpRequestHandler handler;
+
+	@After
+	public void tearDown() {
+		this.handler.destroy();
+	}
+
+	@Test
+	public void resequencesResponses() throws InterruptedException {
+		createHandler(message -> Mono.just(message.getPayload())
+			.delayElement(Duration.ofMillis(100 - 10 * (Integer) message.getPayload())), 10, true);
+		for (int i = 0; i < 10; i++) {
+			this.handler.handleMessage(message(i));
+		}
+		List<Object> payloads = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Message<?> result = this.output.receive(1000);
+			assertThat(result).isNotNull();
+			assertThat(result.getHeaders()).containsEntry("index", i);
+			payloads.add(result.getPayload());
+		}
+		assertThat(payloads).containsExactly("0 post", "1 post", "2 post", "3 post", "4 post", "5 post", "6 post",
+			"7 post", "8 post", "9 post");
+	}
+
+	@Test
+	public void limitsRequestsInFlight() throws InterruptedException {
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		createHandler(message -> Mono.fromRunnable(() -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(),
+			Math::max))
+			.then(Mono.delay(Duration.ofMillis(20)))
+			.doOnTerminate(inFlight::decrementAndGet)
+			.thenReturn(message.getPayload()), 3, false);
+		for (int i = 0; i < 12; i++) {
+			this.handler.handleMessage(message(i));
+		}
+		for (int i = 0; i < 12; i++) {
+			assertThat(this.output.receive(1000)).isNotNull();
+		}
+		assertThat(maxInFlight.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void sendsFailuresToTheErrorChannelInOrder() throws InterruptedException {
+		createHandler(message -> (Integer) message.getPayload() == 1
+			? Mono.error(new IllegalStateException("failed"))
+			: Mono.just(message.getPayload()).delayElement(Duration.ofMillis(50)), 2, true);
+		this.handler.handleMessage(message(0));
+		this.handler.handleMessage(message(1));
+		this.handler.handleMessage(message(2));
+		Message<?> error = this.errors.receive(1000);
+		assertThat(error).isInstanceOf(ErrorMessage.class);
+		assertThat(((ErrorMessage) error).getPayload()).hasRootCauseInstanceOf(IllegalStateException.class);
+		assertThat(this.output.receive(1000).getPayload()).isEqualTo("0 post");
+		assertThat(this.output.receive(1000).getPayload()).isEqualTo("2 post");
+		assertThat(this.output.receive(0)).isNull();
+		assertThat(this.errors.receive(0)).isNull();
+	}
+
+	@Test
+	public void skipsEmptyReplies() {
+		createHandler(message -> (Integer) message.getPayload() == 0 ? Mono.empty() : Mono.just(message.getPayload()),
+			1, true);
+		this.handler.handleMessage(message(0));
+		this.handler.handleMessage(message(1));
+		assertThat(this.output.receive(1000).getPayload()).isEqualTo("1 post");
+		assertThat(this.output.receive(100)).isNull();
+	}
+
+	private void createHandler(Function<Message<?>, Mono<Object>> httpRequest, int maxInFlight, boolean ordered) {
+		this.handler = new AsyncHttpRequestHandler(httpRequest,
+			message -> MessageBuilder.withPayload(message.getPayload() + " post")
+				.copyHeaders(message.getHeaders())
+				.build(),
+			maxInFlight, ordered);
+		this.handler.setOutputChannel(this.output);
+	}
+
+	private Message<?> message(int index) {
+		return MessageBuilder.withPayload(index)
+			.setHeader("index", index)
+			.setHeader(MessageHeaders.ERROR_CHANNEL, this.errors)
+			.build();
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkHttpRequestProcessorTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<Message<?>> requests = new ArrayList<>();
+
+	@Test
+	public void buildsAndSplitsBulkRequests() throws Exception {
+		File file = folder.newFile("bulk.py");
+		FileUtils.writeStringToFile(file, "def input():\n"
+			+ "    return '\\n'.join(payloads)\n"
+			+ "\n"
+			+ "def output():\n"
+			+ "    return [line + ' ' + h['index'] for line, h in zip(payload.split('\\n'), headers)]\n"
+			+ "\n"
+			+ "result = locals()[channel]()\n", StandardCharsets.UTF_8);
+		JythonScriptExecutor wrapper = new JythonScriptExecutor(new FileSystemResource(file));
+		wrapper.afterPropertiesSet();
+		BulkHttpRequestProcessor processor = new BulkHttpRequestProcessor(wrapper,
+			request -> {
+				this.requests.add(request);
+				return ((String) request.getPayload()).toUpperCase();
+			},
+			Collections.singletonMap("channel", "input"), new String[0],
+			Collections.singletonMap("channel", "output"), new String[0]);
+
+		List<Message<?>> replies = process(processor, batch("a", "b", "c"));
+
+		assertThat(this.requests).hasSize(1);
+		assertThat(this.requests.get(0).getPayload()).isEqualTo("a\nb\nc");
+		assertThat(replies).extracting(reply -> (Object) reply.getPayload()).containsExactly("A 0", "B 1", "C 2");
+		assertThat(replies).extracting(reply -> reply.getHeaders().get("index")).containsExactly("0", "1", "2");
+	}
+
+	@Test
+	public void sendsPayloadsWithoutWrapper() {
+		BulkHttpRequestProcessor processor = new BulkHttpRequestProcessor(null,
+			request -> {
+				this.requests.add(request);
+				return new ArrayList<>((List<?>) request.getPayload());
+			}, null, null, null, null);
+
+		List<Message<?>> replies = process(processor, batch("a", "b"));
+
+		assertThat(this.requests.get(0).getPayload()).isEqualTo(Arrays.asList("a", "b"));
+		assertThat(replies).extracting(reply -> (Object) reply.getPayload()).containsExactly("a", "b");
+	}
+
+	@Test
+	public void rejectsRepliesThatDoNotMatchTheBatch() {
+		BulkHttpRequestProcessor processor = new BulkHttpRequestProcessor(null,
+			request -> Collections.singletonList("one"), null, null, null, null);
+		assertThatThrownBy(() -> processor.splitMessage(batch("a", "b")))
+			.isInstanceOf(MessageHandlingException.class)
+			.hasMessageContaining("must be a list of 2 results");
+	}
+
+	@Test
+	public void sendsEachResultWithTheHeadersOfItsMessage() {
+		BulkHttpRequestProcessor processor = new BulkHttpRequestProcessor(null,
+			Message::getPayload, null, null, null, null);
+		QueueChannel output = new QueueChannel();
+		processor.setOutputChannel(output);
+
+		processor.handleMessage(batch("a", "b"));
+
+		for (String index : new String[] { "0", "1" }) {
+			Message<?> reply = output.receive(0);
+			assertThat(reply.getHeaders().get("index")).isEqualTo(index);
+			assertThat(reply.getHeaders()).doesNotContainKey(IntegrationMessageHeaderAccessor.SEQUENCE_NUMBER);
+		}
+		assertThat(output.receive(0)).isNull();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Message<?>> process(BulkHttpRequestProcessor processor, Message<?> batch) {
+		return (List<Message<?>>) processor.splitMessage(batch);
+	}
+
+	private static Message<?> batch(String... payloads) {
+		List<Message<?>> messages = new ArrayList<>();
+		for (int i = 0; i < payloads.length; i++) {
+			messages.add(MessageBuilder.withPayload(payloads[i]).setHeader("index", String.valueOf(i)).build());
+		}
+		return MessageBuilder.withPayload(messages).build();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTests {
+
+	@Test
+	public void opensAtFailureRate() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(4, 50, 0, 60000);
+		for (int i = 0; i < 3; i++) {
+			long permit = circuitBreaker.tryAcquire();
+			assertThat(permit).isNotEqualTo(CircuitBreaker.REJECTED);
+			circuitBreaker.onSuccess(permit, 0);
+		}
+		circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+	}
+
+	@Test
+	public void countsSlowCallsAsFailed() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100, 10, 60000);
+		circuitBreaker.onSuccess(circuitBreaker.tryAcquire(), 20_000_000);
+		circuitBreaker.onSuccess(circuitBreaker.tryAcquire(), 20_000_000);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	public void closesAfterSuccessfulTrial() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 0, 50);
+		circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+		assertThat(circuitBreaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+		Thread.sleep(100);
+		long trial = circuitBreaker.tryAcquire();
+		assertThat(trial).isNotEqualTo(CircuitBreaker.REJECTED);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+		circuitBreaker.release(trial);
+		trial = circuitBreaker.tryAcquire();
+		assertThat(trial).isNotEqualTo(CircuitBreaker.REJECTED);
+		circuitBreaker.onSuccess(trial, 0);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+		assertThat(circuitBreaker.tryAcquire()).isNotEqualTo(CircuitBreaker.REJECTED);
+	}
+
+	@Test
+	public void reopensAfterFailedTrial() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 0, 50);
+		circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+		Thread.sleep(100);
+		long trial = circuitBreaker.tryAcquire();
+		assertThat(trial).isNotEqualTo(CircuitBreaker.REJECTED);
+		circuitBreaker.onFailure(trial);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+	}
+
+	@Test
+	public void ignoresOutcomesOfCallsPermittedBeforeTheTrial() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100, 0, 50);
+		long slow = circuitBreaker.tryAcquire();
+		circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+		Thread.sleep(100);
+		long trial = circuitBreaker.tryAcquire();
+		circuitBreaker.onSuccess(slow, 0);
+		circuitBreaker.release(slow);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+		assertThat(circuitBreaker.tryAcquire()).isEqualTo(CircuitBreaker.REJECTED);
+		circuitBreaker.onFailure(trial);
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.http.HttpMethod.GET;
+
+public class HttpRequestGuardTests {
+
+	private final HttpRequestGuard guard = new HttpRequestGuard();
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final Message<String> message = MessageBuilder.withPayload("request").build();
+
+	private final AtomicInteger attempts = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		this.guard.destroy();
+	}
+
+	@Test
+	public void callsInlineWithoutTimeoutOrHedging() {
+		Thread caller = Thread.currentThread();
+		assertThat(this.guard.call(this.message, GET, message -> Thread.currentThread() == caller)).isEqualTo(true);
+	}
+
+	@Test
+	public void timesOut() {
+		this.guard.setTimeout(50);
+		this.guard.setMeterRegistry(this.registry);
+		assertThatThrownBy(() -> this.guard.call(this.message, GET, sleep(1000)))
+			.isInstanceOf(MessageHandlingException.class)
+			.hasCauseInstanceOf(TimeoutException.class);
+		assertThatThrownBy(() -> this.guard.guard(this.message, GET, () -> Mono.never()).block(Duration.ofSeconds(1)))
+			.isInstanceOf(MessageHandlingException.class)
+			.hasCauseInstanceOf(TimeoutException.class);
+		assertThat(this.registry.get(HttpRequestGuard.TIMEOUTS).counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	public void honorsDeadlineHeader() {
+		this.guard.setTimeout(10000);
+		this.guard.setDeadlineHeader("deadline");
+		Message<String> message = MessageBuilder.fromMessage(this.message)
+			.setHeader("deadline", String.valueOf(System.currentTimeMillis() + 50))
+			.build();
+		assertThatThrownBy(() -> this.guard.call(message, GET, sleep(1000)))
+			.isInstanceOf(MessageHandlingException.class)
+			.hasCauseInstanceOf(TimeoutException.class);
+		Message<String> expired = MessageBuilder.fromMessage(this.message)
+			.setHeader("deadline", System.currentTimeMillis() - 1)
+			.build();
+		assertThatThrownBy(() -> this.guard.call(expired, GET, request -> this.attempts.incrementAndGet()))
+			.isInstanceOf(MessageHandlingException.class);
+		assertThat(this.attempts.get()).isEqualTo(0);
+		assertThat(this.guard.call(this.message, GET, request -> "reply")).isEqualTo("reply");
+		Message<String> malformed = MessageBuilder.fromMessage(this.message).setHeader("deadline", "soon").build();
+		assertThat(this.guard.call(malformed, GET, request -> "reply")).isEqualTo("reply");
+	}
+
+	@Test
+	public void interruptsRequestsThatTimeOut() throws InterruptedException {
+		this.guard.setTimeout(50);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		assertThatThrownBy(() -> this.guard.call(this.message, GET, message -> {
+			try {
+				Thread.sleep(5000);
+			}
+			catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return "slow";
+		})).isInstanceOf(MessageHandlingException.class);
+		assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void rejectsRequestsWhileAllThreadsAreBusy() throws Exception {
+		this.guard.setTimeout(5000);
+		this.guard.setMaxThreads(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread busy = new Thread(() -> this.guard.call(this.message, GET, message -> {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "busy";
+		}));
+		busy.start();
+		assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThatThrownBy(() -> this.guard.call(this.message, GET, message -> this.attempts.incrementAndGet()))
+			.isInstanceOf(MessageHandlingException.class)
+			.hasMessageContaining("guard threads are busy");
+		release.countDown();
+		busy.join(1000);
+		assertThat(this.attempts.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void hedgesSlowRequests() {
+		this.guard.setHedgePercentile(90);
+		this.guard.setMeterRegistry(this.registry);
+		for (int i = 0; i < 100; i++) {
+			this.guard.call(this.message, GET, message -> "fast");
+		}
+		assertThat(this.guard.call(this.message, GET, message -> this.attempts.incrementAndGet() == 1
+			? sleep(1000).apply(message)
+			: "hedged")).isEqualTo("hedged");
+		this.attempts.set(0);
+		assertThat(this.guard.guard(this.message, GET, () -> this.attempts.incrementAndGet() == 1
+			? Mono.just("slow").delayElement(Duration.ofSeconds(1))
+			: Mono.just("hedged")).block(Duration.ofSeconds(1))).isEqualTo("hedged");
+		assertThat(this.registry.get(HttpRequestGuard.HEDGES).counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	public void hedgesOnlyIdempotentRequests() {
+		this.guard.setHedgePercentile(90);
+		this.guard.setMeterRegistry(this.registry);
+		for (int i = 0; i < 100; i++) {
+			this.guard.call(this.message, GET, message -> "fast");
+		}
+		assertThat(this.guard.call(this.message, HttpMethod.POST, message -> {
+			this.attempts.incrementAndGet();
+			return sleep(100).apply(message);
+		})).isEqualTo("slow");
+		assertThat(this.guard.guard(this.message, HttpMethod.PATCH, () -> {
+			this.attempts.incrementAndGet();
+			return Mono.just("slow").delayElement(Duration.ofMillis(100));
+		}).block(Duration.ofSeconds(1))).isEqualTo("slow");
+		assertThat(this.attempts.get()).isEqualTo(2);
+		assertThat(this.registry.get(HttpRequestGuard.HEDGES).counter().count()).isEqualTo(0);
+	}
+
+	@Test
+	public void failsFastWhileCircuitBreakerIsOpen() {
+		this.guard.setCircuitBreaker(new CircuitBreaker(2, 100, 0, 60000));
+		this.guard.setMeterRegistry(this.registry);
+		for (int i = 0; i < 2; i++) {
+			assertThatThrownBy(() -> this.guard.call(this.message, GET, message -> {
+				this.attempts.incrementAndGet();
+				throw new IllegalStateException("failed");
+			})).isInstanceOf(IllegalStateException.class);
+		}
+		assertThatThrownBy(() -> this.guard.call(this.message, GET, message -> this.attempts.incrementAndGet()))
+			.isInstanceOf(CircuitBreakerOpenException.class);
+		assertThatThrownBy(() -> this.guard.guard(this.message, GET,
+			() -> Mono.fromCallable(this.attempts::incrementAndGet)).block())
+			.isInstanceOf(CircuitBreakerOpenException.class);
+		assertThat(this.attempts.get()).isEqualTo(2);
+		assertThat(this.registry.get(HttpRequestGuard.REJECTED).counter().count()).isEqualTo(2);
+		assertThat(this.registry.get("http.circuit-breaker.state").gauge().value())
+			.isEqualTo(CircuitBreaker.State.OPEN.ordinal());
+	}
+
+	private static Function<Message<?>, Object> sleep(long millis) {
+		return message -> {
+			try {
+				Thread.sleep(millis);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "slow";
+		};
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.cloud.stream.app.httpclient.processor.HttpclientProcessorProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HttpResponseCacheTests {
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	@Test
+	public void cachesRepliesByKey() {
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 60000);
+		assertThat(reply(cache, "a")).isEqualTo("a 1");
+		assertThat(reply(cache, "b")).isEqualTo("b 2");
+		assertThat(reply(cache, "a")).isEqualTo("a 1");
+		assertThat(this.requests.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 2, 60000);
+		cache.setMeterRegistry(registry);
+		reply(cache, "a");
+		reply(cache, "b");
+		reply(cache, "a");
+		reply(cache, "c");
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get("a")).isNotNull();
+		assertThat(cache.get("b")).isNull();
+		assertThat(registry.get(HttpResponseCache.EVICTIONS).counter().count()).isEqualTo(1);
+		assertThat(registry.get(HttpResponseCache.GETS).tag("result", "hit").counter().count()).isEqualTo(2);
+		assertThat(registry.get(HttpResponseCache.GETS).tag("result", "miss").counter().count()).isEqualTo(4);
+		assertThat(registry.get(HttpResponseCache.SIZE).gauge().value()).isEqualTo(2);
+	}
+
+	@Test
+	public void expiresReplies() throws InterruptedException {
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 50);
+		reply(cache, "a");
+		Thread.sleep(100);
+		assertThat(reply(cache, "a")).isEqualTo("a 2");
+	}
+
+	@Test
+	public void honorsCacheControl() {
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 60000);
+		cache.setCacheControl(true);
+		cache.put("none", "reply", new HttpHeaders());
+		cache.put("no-store", "reply", cacheControl("no-store"));
+		cache.put("private", "reply", cacheControl("private, max-age=60"));
+		cache.put("max-age", "reply", cacheControl("public, max-age=0"));
+		cache.put("s-maxage", "reply", cacheControl("s-maxage=60"));
+		assertThat(cache.get("none")).isNotNull();
+		assertThat(cache.get("no-store")).isNull();
+		assertThat(cache.get("private")).isNull();
+		assertThat(cache.get("max-age")).isNull();
+		assertThat(cache.get("s-maxage")).isNotNull();
+	}
+
+	@Test
+	public void ignoresCacheControlUnlessHonored() {
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 60000);
+		cache.put("no-store", "reply", cacheControl("no-store"));
+		assertThat(cache.get("no-store")).isNotNull();
+	}
+
+	@Test
+	public void copiesRepliesOnceWhenCached() {
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 60000);
+		Map<String, Object> reply = new HashMap<>();
+		reply.put("list", new ArrayList<>(Collections.singletonList("value")));
+		byte[] bytes = { 1, 2 };
+		cache.put("map", reply, null);
+		cache.put("bytes", bytes, null);
+		((List<String>) reply.get("list")).add("changed");
+		bytes[0] = 0;
+		Map<String, Object> cached = (Map<String, Object>) cache.get("map").getReply();
+		assertThat(cached).isEqualTo(Collections.singletonMap("list", Collections.singletonList("value")))
+			.isSameAs(cache.get("map").getReply());
+		assertThatThrownBy(() -> cached.put("key", "value")).isInstanceOf(UnsupportedOperationException.class);
+		assertThatThrownBy(() -> ((List<String>) cached.get("list")).add("value"))
+			.isInstanceOf(UnsupportedOperationException.class);
+		assertThat(cache.get("bytes").getReply()).isEqualTo(new byte[] { 1, 2 })
+			.isNotSameAs(cache.get("bytes").getReply());
+	}
+
+	@Test
+	public void cachesOnlyTheReplyOfTheRequestThatIsSent() {
+		AtomicInteger puts = new AtomicInteger();
+		HttpResponseCache cache = new HttpResponseCache(Message::getPayload, 10, 60000) {
+
+			@Override
+			public void put(Object key, Object reply, HttpHeaders headers) {
+				puts.incrementAndGet();
+				super.put(key, reply, headers);
+			}
+		};
+		HttpclientProcessorProperties properties = new HttpclientProcessorProperties();
+		properties.setUrl("http://localhost/reply");
+		ReactiveHttpRequestFunction function = new ReactiveHttpRequestFunction(properties, null) {
+
+			@Override
+			Mono<ResponseEntity<?>> exchange(RequestEntity<?> request) {
+				return Mono.<ResponseEntity<?>>fromCallable(
+					() -> ResponseEntity.ok("reply " + HttpResponseCacheTests.this.requests.incrementAndGet()))
+					.delayElement(Duration.ofMillis(100));
+			}
+		};
+		function.setResponseCache(cache);
+		function.setRequestCoalescer(new RequestCoalescer<>());
+		List<Object> replies = Flux.range(0, 3)
+			.flatMap(i -> function.apply(message("a")))
+			.collectList()
+			.block(Duration.ofSeconds(1));
+		assertThat(replies).containsOnly("reply 1").hasSize(3);
+		assertThat(puts.get()).isEqualTo(1);
+		assertThat(function.apply(message("a")).block()).isEqualTo("reply 1");
+	}
+
+	/*
+	 * Looks up the reply for a payload as the request functions do, and caches a new one on a miss.
+	 */
+	private Object reply(HttpResponseCache cache, String payload) {
+		Object key = cache.key(message(payload));
+		HttpResponseCache.CachedReply cached = cache.get(key);
+		if (cached != null) {
+			return cached.getReply();
+		}
+		Object reply = payload + " " + this.requests.incrementAndGet();
+		cache.put(key, reply, null);
+		return reply;
+	}
+
+	private static Message<?> message(String payload) {
+		return MessageBuilder.withPayload(payload).build();
+	}
+
+	private static HttpHeaders cacheControl(String value) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setCacheControl(value);
+		return headers;
+	}
+}
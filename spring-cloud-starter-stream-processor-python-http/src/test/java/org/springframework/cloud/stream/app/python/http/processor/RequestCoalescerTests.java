@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RequestCoalescerTests {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	private final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void sharesConcurrentCalls() throws Exception {
+		this.coalescer.setMeterRegistry(this.registry);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			results.add(this.executor.submit(() -> this.coalescer.coalesce("key", () -> {
+				this.calls.incrementAndGet();
+				await(release);
+				return "reply";
+			})));
+		}
+		while (this.registry.get(RequestCoalescer.COALESCED).counter().count() < 3) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		for (Future<String> result : results) {
+			assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo("reply");
+		}
+		assertThat(this.calls.get()).isEqualTo(1);
+		assertThat(this.coalescer.coalesce("key", () -> "again")).isEqualTo("again");
+	}
+
+	@Test
+	public void sharesFailures() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> first = this.executor.submit(() -> this.coalescer.coalesce("key", () -> {
+			started.countDown();
+			await(release);
+			throw new IllegalStateException("failed");
+		}));
+		await(started);
+		Future<String> second = this.executor.submit(() -> this.coalescer.coalesce("key", () -> "not sent"));
+		Thread.sleep(50);
+		release.countDown();
+		assertThatThrownBy(() -> first.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void doesNotShareDifferentKeys() {
+		assertThat(this.coalescer.coalesce("a", () -> "a")).isEqualTo("a");
+		assertThat(this.coalescer.coalesce("b", () -> "b")).isEqualTo("b");
+	}
+
+	@Test
+	public void sharesConcurrentAsyncCalls() {
+		List<String> replies = Flux.range(0, 5)
+			.flatMap(i -> this.coalescer.coalesceAsync("key", () -> Mono.fromCallable(this.calls::incrementAndGet)
+				.delayElement(Duration.ofMillis(100))
+				.map(calls -> "reply " + calls)))
+			.collectList()
+			.block(Duration.ofSeconds(1));
+		assertThat(replies).containsOnly("reply 1").hasSize(5);
+		assertThat(this.calls.get()).isEqualTo(1);
+		assertThat(this.coalescer.coalesceAsync("key", () -> Mono.just("again")).block()).isEqualTo("again");
+	}
+
+	@Test
+	public void sharesEmptyAsyncReplies() {
+		List<String> replies = Flux.range(0, 3)
+			.flatMap(i -> this.coalescer.coalesceAsync("key", () -> Mono.<String>empty()
+				.delaySubscription(Duration.ofMillis(50))))
+			.collectList()
+			.block(Duration.ofSeconds(1));
+		assertThat(replies).isEmpty();
+	}
+
+	@Test
+	public void sharedCallsWaitNoLongerThanTheirTimeout() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> first = this.executor.submit(() -> this.coalescer.coalesce("key", () -> {
+			started.countDown();
+			await(release);
+			return "reply";
+		}));
+		await(started);
+		assertThatThrownBy(() -> this.coalescer.coalesce("key", () -> "not sent", TimeUnit.MILLISECONDS.toNanos(50),
+			e -> new IllegalStateException("timed out", e))).isInstanceOf(IllegalStateException.class)
+			.hasMessage("timed out");
+		release.countDown();
+		assertThat(first.get(1, TimeUnit.SECONDS)).isEqualTo("reply");
+	}
+
+	@Test
+	public void sharedAsyncCallsWaitNoLongerThanTheirTimeout() {
+		Mono<String> first = this.coalescer.coalesceAsync("key", () -> Mono.just("reply")
+			.delayElement(Duration.ofMillis(500)));
+		Mono<String> second = this.coalescer.coalesceAsync("key", () -> Mono.just("not sent"),
+			TimeUnit.MILLISECONDS.toNanos(50), e -> new IllegalStateException("timed out", e))
+			.onErrorResume(IllegalStateException.class, e -> Mono.just(e.getMessage()));
+		List<String> replies = Flux.merge(first, second).collectList().block(Duration.ofSeconds(1));
+		assertThat(replies).containsExactly("timed out", "reply");
+	}
+
+	@Test
+	public void sendsASharedAsyncCallWhenTheCallInFlightIsCancelled() {
+		Disposable first = this.coalescer.coalesceAsync("key", Mono::<String>never).subscribe();
+		Mono<String> second = this.coalescer.coalesceAsync("key",
+			() -> Mono.fromCallable(() -> "reply " + this.calls.incrementAndGet()).delayElement(Duration.ofMillis(50)));
+		Mono<List<String>> replies = Flux.merge(second, second).collectList();
+		Mono.delay(Duration.ofMillis(50)).subscribe(tick -> first.dispose());
+		assertThat(replies.block(Duration.ofSeconds(1))).containsExactly("reply 1", "reply 1");
+		assertThat(this.calls.get()).isEqualTo(1);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.springframework.cloud.stream.app.python.http.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThreadPoolHttpRequestHandlerTests {
+
+	private final QueueChannel output = new QueueChannel();
+
+	private final QueueChannel errors = new QueueChannel();
+
+	private ThreadPoolHttpRequestHandler handler;
+
+	@After
+	public void tearDown() {
+		this.handler.destroy();
+	}
+
+	@Test
+	public void limitsConcurrency() {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		createHandler(message -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			sleep(20);
+			running.decrementAndGet();
+			return message;
+		}, 3);
+		for (int i = 0; i < 12; i++) {
+			this.handler.handleMessage(message(i, null));
+		}
+		for (int i = 0; i < 12; i++) {
+			assertThat(this.output.receive(1000)).isNotNull();
+		}
+		assertThat(maxRunning.get()).isEqualTo(3);
+	}
+
+	@Test
+	public void keepsOrderByKey() {
+		createHandler(message -> {
+			sleep(5 * ((Integer) message.getPayload() % 3));
+			return message;
+		}, 4);
+		this.handler.setOrderKeyExpression(new SpelExpressionParser().parseExpression("headers['partition']"));
+		for (int i = 0; i < 30; i++) {
+			this.handler.handleMessage(message(i, i % 2));
+		}
+		Map<Object, List<Object>> payloadsByKey = new HashMap<>();
+		for (int i = 0; i < 30; i++) {
+			Message<?> result = this.output.receive(1000);
+			assertThat(result).isNotNull();
+			payloadsByKey.computeIfAbsent(result.getHeaders().get("partition"), key -> new ArrayList<>())
+				.add(result.getPayload());
+		}
+		assertThat(payloadsByKey.get(0)).isSorted().hasSize(15);
+		assertThat(payloadsByKey.get(1)).isSorted().hasSize(15);
+	}
+
+	@Test
+	public void sendsFailuresToTheErrorChannel() {
+		createHandler(message -> {
+			if ((Integer) message.getPayload() == 1) {
+				throw new IllegalStateException("failed");
+			}
+			return message;
+		}, 2);
+		this.handler.setOrderKeyExpression(new SpelExpressionParser().parseExpression("headers['partition']"));
+		this.handler.handleMessage(message(1, 0));
+		this.handler.handleMessage(message(2, 0));
+		Message<?> error = this.errors.receive(1000);
+		assertThat(error).isInstanceOf(ErrorMessage.class);
+		assertThat(((ErrorMessage) error).getPayload()).hasRootCauseInstanceOf(IllegalStateException.class);
+		assertThat(this.output.receive(1000).getPayload()).isEqualTo(2);
+	}
+
+	private void createHandler(Function<Message<?>, Message<?>> chain, int concurrency) {
+		this.handler = new ThreadPoolHttpRequestHandler(chain, concurrency);
+		this.handler.setOutputChannel(this.output);
+	}
+
+	private Message<?> message(int index, Integer partition) {
+		return MessageBuilder.withPayload(index)
+			.setHeader("partition", partition)
+			.setHeader(MessageHeaders.ERROR_CHANNEL, this.errors)
+			.build();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
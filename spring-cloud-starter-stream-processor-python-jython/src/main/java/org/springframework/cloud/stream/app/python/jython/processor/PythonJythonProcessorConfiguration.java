@@ -16,25 +16,41 @@
 
 package org.springframework.cloud.stream.app.python.jython.processor;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.app.common.resource.repository.JGitResourceRepository;
 import org.springframework.cloud.stream.app.common.resource.repository.config.GitResourceRepositoryConfiguration;
-import org.springframework.cloud.stream.app.python.jython.JythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.jython.JythonBatchProcessor;
 import org.springframework.cloud.stream.app.python.jython.JythonScriptProperties;
 import org.springframework.cloud.stream.app.python.jython.ScriptVariableGeneratorConfiguration;
+import org.springframework.cloud.stream.app.python.script.AbstractPythonScriptExecutor;
+import org.springframework.cloud.stream.app.python.script.ScriptExecutorUtils;
 import org.springframework.cloud.stream.app.python.script.ScriptResourceUtils;
+import org.springframework.cloud.stream.app.python.script.ScriptWarmUp;
 import org.springframework.cloud.stream.messaging.Processor;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.IntegrationFlows;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.scripting.ScriptVariableGenerator;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.support.MessageBuilder;
 
 /**
- * A Processor that runs a Jython script.
+ * A Processor that runs a Python script on Jython or CPython, either once per message or, if 'jython.batch-size' is
+ * greater than 1, once per batch of messages.
  *
  * @author David Turanski
  * @author Artem Bilan
@@ -50,21 +66,68 @@ public class PythonJythonProcessorConfiguration {
 	@Autowired
 	private JythonScriptProperties properties;
 
-	@Autowired
-	private JythonScriptExecutor jythonScriptExecutor;
-
 	@Bean
-	public JythonScriptExecutor jythonScriptExecutor(ScriptVariableGenerator scriptVariableGenerator) {
+	public AbstractPythonScriptExecutor jythonScriptExecutor(ScriptVariableGenerator scriptVariableGenerator,
+		ObjectProvider<MeterRegistry> meterRegistry) {
 		if (gitResourceRepository != null) {
 			ScriptResourceUtils.overwriteScriptLocationToGitCloneTarget(gitResourceRepository, properties);
 		}
-		return new JythonScriptExecutor(properties.getScriptResource(), scriptVariableGenerator);
+		return ScriptExecutorUtils.createScriptExecutor(properties, scriptVariableGenerator,
+			meterRegistry.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnExpression("${jython.warmup-iterations:0} > 0")
+	public ScriptWarmUp jythonScriptWarmUp(AbstractPythonScriptExecutor jythonScriptExecutor,
+		ObjectProvider<MeterRegistry> meterRegistry) {
+		ScriptWarmUp warmUp = new ScriptWarmUp(jythonScriptExecutor, properties.getWarmupPayloads(),
+			properties.getWarmupIterations());
+		warmUp.setBatchSize(properties.getBatchSize());
+		warmUp.setMeterRegistry(meterRegistry.getIfAvailable());
+		return warmUp;
+	}
+
+	@Configuration
+	@ConditionalOnExpression("${jython.batch-size:1} <= 1")
+	static class SingleMessageConfiguration {
+
+		@Autowired
+		private AbstractPythonScriptExecutor jythonScriptExecutor;
+
+		@Autowired
+		private JythonScriptProperties properties;
+
+		@StreamListener(Processor.INPUT)
+		@SendTo(Processor.OUTPUT)
+		public Object transformer(Message<?> message) {
+			Object result = this.jythonScriptExecutor.execute(message);
+			if (!this.jythonScriptExecutor.isBinary() || !(result instanceof byte[])) {
+				return result;
+			}
+			return MessageBuilder.withPayload(result)
+				.setHeader(MessageHeaders.CONTENT_TYPE, this.properties.getContentType())
+				.build();
+		}
 	}
 
-	@StreamListener(Processor.INPUT)
-	@SendTo(Processor.OUTPUT)
-	public Object transformer(Message<?> message) {
-		return this.jythonScriptExecutor.execute(message);
+	@Configuration
+	@ConditionalOnExpression("${jython.batch-size:1} > 1")
+	static class BatchConfiguration {
+
+		@Bean
+		public IntegrationFlow jythonBatchFlow(Processor processor, AbstractPythonScriptExecutor jythonScriptExecutor,
+			JythonScriptProperties properties,
+			@Qualifier(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME) MessageChannel errorChannel) {
+			JythonBatchProcessor batchProcessor = new JythonBatchProcessor(jythonScriptExecutor);
+			batchProcessor.setErrorChannel(errorChannel);
+			if (jythonScriptExecutor.isBinary()) {
+				batchProcessor.setContentType(properties.getContentType());
+			}
+			return IntegrationFlows.from(processor.input())
+				.aggregate(JythonBatchProcessor.batchAggregator(properties, batchProcessor))
+				.channel(processor.output())
+				.get();
+		}
 	}
 
 }
@@ -17,6 +17,9 @@
 package org.springframework.cloud.stream.app.python.jython.processor;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
@@ -24,6 +27,7 @@ import org.junit.runner.RunWith;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -32,8 +36,15 @@ import org.springframework.cloud.stream.messaging.Processor;
 import org.springframework.cloud.stream.test.binder.MessageCollector;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.support.ErrorMessage;
 import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
@@ -58,6 +69,10 @@ public abstract class JythonProcessorTests {
 	@Autowired
 	MessageCollector messageCollector;
 
+	@Autowired
+	@Qualifier(IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME)
+	SubscribableChannel errorChannel;
+
 	@TestPropertySource(properties = { "jython.script=./src/test/resources/wrapper/simple_wrapper.py" })
 	public static class TestSimpleFile extends JythonProcessorTests {
 
@@ -71,6 +86,23 @@ public abstract class JythonProcessorTests {
 		}
 	}
 
+	@TestPropertySource(properties = { "jython.script=src/test/resources/wrapper/binary_upper.py",
+		"jython.content-type=application/octet-stream",
+		"spring.cloud.stream.bindings.input.content-type=application/octet-stream" })
+	public static class TestBinary extends JythonProcessorTests {
+
+		@Test
+		public void test() throws InterruptedException {
+			Message<byte[]> message = new GenericMessage<>("hello world".getBytes(StandardCharsets.UTF_8));
+			processor.input().send(message);
+			Message<byte[]> received = (Message<byte[]>) messageCollector.forChannel(processor.output())
+				.poll(1, TimeUnit.SECONDS);
+			assertThat(received.getPayload()).isEqualTo("HELLO WORLD".getBytes(StandardCharsets.UTF_8));
+			assertThat(received.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString())
+				.isEqualTo("application/octet-stream");
+		}
+	}
+
 	@TestPropertySource(properties = { "jython.script=src/test/resources/wrapper/map_sentiments.py",
 		"jython.variables=positive=0.6,neutral=0.4", "jython.delimiter=COMMA" })
 	public static class TestWithVariables extends JythonProcessorTests {
@@ -85,6 +117,92 @@ public abstract class JythonProcessorTests {
 		}
 	}
 
+	@TestPropertySource(properties = { "jython.script=src/test/resources/wrapper/springjson_sentiments.py",
+		"jython.variables=positive=0.6,neutral=0.4", "jython.delimiter=COMMA" })
+	public static class TestSpringJson extends JythonProcessorTests {
+
+		@Test
+		public void test() throws InterruptedException {
+			Message<Double> message = new GenericMessage<>(0.394);
+			processor.input().send(message);
+			Message<String> received = (Message<String>) messageCollector.forChannel(processor.output())
+				.poll(1, TimeUnit.SECONDS);
+			assertThat(received.getPayload()).isEqualTo("{\"sentiment\": \"Negative\"}");
+		}
+	}
+
+	@TestPropertySource(properties = { "jython.script=src/test/resources/wrapper/springjson-test.py",
+		"jython.content-type=application/octet-stream",
+		"spring.cloud.stream.bindings.input.content-type=application/octet-stream" })
+	public static class TestSpringJsonBinary extends JythonProcessorTests {
+
+		@Test
+		public void test() throws InterruptedException {
+			Message<byte[]> message = new GenericMessage<>(
+				"[{\"text\": \"caf\u00e9\"}, {\"id\": 2}]".getBytes(StandardCharsets.UTF_8));
+			processor.input().send(message);
+			Message<byte[]> received = (Message<byte[]>) messageCollector.forChannel(processor.output())
+				.poll(1, TimeUnit.SECONDS);
+			assertThat(new String(received.getPayload(), StandardCharsets.UTF_8))
+				.isEqualTo("{\"text\": \"caf\\u00e9\"}");
+		}
+	}
+
+	@TestPropertySource(properties = { "jython.script=src/test/resources/wrapper/batch_upper.py",
+		"jython.batch-size=2", "jython.batch-timeout=10000" })
+	public static class TestBatch extends JythonProcessorTests {
+
+		@Test
+		public void test() throws InterruptedException {
+			processor.input().send(MessageBuilder.withPayload("hello").setHeader("index", 1).build());
+			processor.input().send(MessageBuilder.withPayload("world").setHeader("index", 2).build());
+			Message<String> received = (Message<String>) messageCollector.forChannel(processor.output())
+				.poll(1, TimeUnit.SECONDS);
+			assertThat(received.getPayload()).isEqualTo("HELLO");
+			assertThat(received.getHeaders().get("index")).isEqualTo(1);
+			received = (Message<String>) messageCollector.forChannel(processor.output()).poll(1, TimeUnit.SECONDS);
+			assertThat(received.getPayload()).isEqualTo("WORLD");
+			assertThat(received.getHeaders().get("index")).isEqualTo(2);
+		}
+
+		@Test
+		public void batchesByPartition() throws InterruptedException {
+			processor.input().send(MessageBuilder.withPayload("a").setHeader("kafka_receivedPartitionId", 0).build());
+			processor.input().send(MessageBuilder.withPayload("b").setHeader("kafka_receivedPartitionId", 1).build());
+			processor.input().send(MessageBuilder.withPayload("c").setHeader("kafka_receivedPartitionId", 0).build());
+			assertThat(messageCollector.forChannel(processor.output()).poll(1, TimeUnit.SECONDS).getPayload())
+				.isEqualTo("A");
+			assertThat(messageCollector.forChannel(processor.output()).poll(1, TimeUnit.SECONDS).getPayload())
+				.isEqualTo("C");
+			processor.input().send(MessageBuilder.withPayload("d").setHeader("kafka_receivedPartitionId", 1).build());
+			assertThat(messageCollector.forChannel(processor.output()).poll(1, TimeUnit.SECONDS).getPayload())
+				.isEqualTo("B");
+			assertThat(messageCollector.forChannel(processor.output()).poll(1, TimeUnit.SECONDS).getPayload())
+				.isEqualTo("D");
+		}
+
+		@Test
+		public void sendsFailedBatchesToTheErrorChannel() throws InterruptedException {
+			BlockingQueue<Message<?>> errors = new LinkedBlockingQueue<>();
+			MessageHandler handler = errors::add;
+			errorChannel.subscribe(handler);
+			try {
+				processor.input().send(MessageBuilder.withPayload(1).setHeader("index", 1).build());
+				processor.input().send(MessageBuilder.withPayload(2).setHeader("index", 2).build());
+				for (int index = 1; index <= 2; index++) {
+					Message<?> error = errors.poll(1, TimeUnit.SECONDS);
+					assertThat(error).isInstanceOf(ErrorMessage.class);
+					Message<?> failed = ((MessagingException) error.getPayload()).getFailedMessage();
+					assertThat(failed.getHeaders().get("index")).isEqualTo(index);
+				}
+				assertThat(messageCollector.forChannel(processor.output()).poll(100, TimeUnit.MILLISECONDS)).isNull();
+			}
+			finally {
+				errorChannel.unsubscribe(handler);
+			}
+		}
+	}
+
 	@TestPropertySource(properties = { "jython.script=test-wrappers/upper.py", "git.uri=https://example.com" })
 	@ActiveProfiles("test")
 	public static class TestGit extends JythonProcessorTests {
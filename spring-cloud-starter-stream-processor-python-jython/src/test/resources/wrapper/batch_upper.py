@@ -0,0 +1 @@
+result = [payload.upper() for payload in payloads]
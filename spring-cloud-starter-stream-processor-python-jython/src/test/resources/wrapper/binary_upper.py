@@ -0,0 +1 @@
+result = bytearray(payload.tobytes().upper())